@@ -1,12 +1,15 @@
 package com.example;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.example.Expr.Assign;
 import com.example.Expr.Binary;
 import com.example.Expr.Call;
 import com.example.Expr.Get;
 import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
 import com.example.Expr.Literal;
 import com.example.Expr.Logical;
 import com.example.Expr.Set;
@@ -33,6 +36,23 @@ class AstPrinter implements Expr.Visitor<String> {
         return builder.toString();
     }
 
+    private String property(Expr object, Token name) {
+        return "(. " + print(object) + " " + name.lexeme + ")";
+    }
+
+    private String call(String callee, List<Expr> arguments) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("(call ").append(callee);
+        for (Expr argument : arguments) {
+            builder.append(" ");
+            builder.append(print(argument));
+        }
+        builder.append(")");
+
+        return builder.toString();
+    }
+
     @Override
     public String visitBinaryExpr(Binary expr) {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
@@ -57,50 +77,53 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitVariableExpr(Variable expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitVariableExpr'");
+        return expr.name.lexeme;
     }
 
     @Override
     public String visitAssignExpr(Assign expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitAssignExpr'");
+        return "(= " + expr.name.lexeme + " " + print(expr.value) + ")";
     }
 
     @Override
     public String visitLogicalExpr(Logical expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitLogicalExpr'");
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
     }
 
     @Override
     public String visitCallExpr(Call expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitCallExpr'");
+        return call(print(expr.callee), expr.arguments);
     }
 
     @Override
     public String visitGetExpr(Get expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitGetExpr'");
+        return property(expr.object, expr.name);
+    }
+
+    @Override
+    public String visitInlineExpr(Inline expr) {
+        return expr.call.accept(this);
+    }
+
+    @Override
+    public String visitInvokeExpr(Invoke expr) {
+        // Printed as the call of a property it stands for.
+        return call(property(expr.object, expr.name), expr.arguments);
     }
 
     @Override
     public String visitSetExpr(Set expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitSetExpr'");
+        return "(= " + property(expr.object, expr.name) + " " + print(expr.value) + ")";
     }
 
     @Override
     public String visitThisExpr(This expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitThisExpr'");
+        return "this";
     }
 
     @Override
     public String visitSuperExpr(Super expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitSuperExpr'");
+        return "(. super " + expr.method.lexeme + ")";
     }
 }
 
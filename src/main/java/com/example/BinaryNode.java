@@ -0,0 +1,257 @@
+package com.example;
+
+import com.example.Expr.Binary;
+
+/**
+ * The operation a Binary expression performs, specialized on the operand
+ * types it has seen.
+ *
+ * Every Binary starts out UNINITIALIZED. The first evaluation looks at the
+ * operands and rewrites the node to a form for those types, such as a double
+ * add or a string concatenation, which then only has to check that its guess
+ * still holds. If it stops holding the node falls back to GENERIC for good, so
+ * a node changes at most twice.
+ *
+ * The numeric forms evaluate their operands with Interpreter.evaluateDouble
+ * and can return their own result unboxed, so a nested arithmetic expression
+ * only boxes the value it finally produces.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    abstract Object execute(Interpreter interpreter, Binary expr);
+
+    /**
+     * Evaluates the expression as a number. Throws UnexpectedResult with the
+     * value if it is not one.
+     */
+    double executeDouble(Interpreter interpreter, Binary expr) {
+        Object value = execute(interpreter, expr);
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    private static BinaryNode specialize(Binary expr, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+        switch (expr.operator.type) {
+            case PLUS:
+                if (numbers) return new DoubleAdd();
+                if (left instanceof String && right instanceof String) return new StringConcat();
+                return GENERIC;
+            case MINUS: return numbers ? new DoubleSubtract() : GENERIC;
+            case STAR: return numbers ? new DoubleMultiply() : GENERIC;
+            case SLASH: return numbers ? new DoubleDivide() : GENERIC;
+            case GREATER: return numbers ? new DoubleGreater() : GENERIC;
+            case GREATER_EQUAL: return numbers ? new DoubleGreaterEqual() : GENERIC;
+            case LESS: return numbers ? new DoubleLess() : GENERIC;
+            case LESS_EQUAL: return numbers ? new DoubleLessEqual() : GENERIC;
+            case EQUAL_EQUAL: return new Equal();
+            case BANG_EQUAL: return new NotEqual();
+            default: return GENERIC;
+        }
+    }
+
+    /**
+     * Gives up on a specialization whose guard failed and finishes the
+     * operation generically. The result comes back wrapped in an
+     * UnexpectedResult so it can be thrown out of a numeric path; it is never
+     * a number, because the operands that broke the guard were not both
+     * numbers.
+     */
+    private static UnexpectedResult generalize(Binary expr, Object left, Object right) {
+        expr.node = GENERIC;
+        return new UnexpectedResult(Generic.apply(expr.operator, left, right));
+    }
+
+    private static double left(Interpreter interpreter, Binary expr) {
+        try {
+            return interpreter.evaluateDouble(expr.left);
+        } catch (UnexpectedResult result) {
+            throw generalize(expr, result.value, interpreter.evaluate(expr.right));
+        }
+    }
+
+    private static double right(Interpreter interpreter, Binary expr, double left) {
+        try {
+            return interpreter.evaluateDouble(expr.right);
+        } catch (UnexpectedResult result) {
+            throw generalize(expr, left, result.value);
+        }
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            expr.node = specialize(expr, left, right);
+            return Generic.apply(expr.operator, left, right);
+        }
+    }
+
+    /** Boxes the result of a numeric operation for callers that need an Object. */
+    private abstract static class Arithmetic extends BinaryNode {
+        @Override
+        final Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+    }
+
+    private static final class DoubleAdd extends Arithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) {
+            double left = left(interpreter, expr);
+            return left + right(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleSubtract extends Arithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) {
+            double left = left(interpreter, expr);
+            return left - right(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleMultiply extends Arithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) {
+            double left = left(interpreter, expr);
+            return left * right(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleDivide extends Arithmetic {
+        @Override
+        double executeDouble(Interpreter interpreter, Binary expr) {
+            double left = left(interpreter, expr);
+            return left / right(interpreter, expr, left);
+        }
+    }
+
+    private static final class DoubleGreater extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = left(interpreter, expr);
+                return left > right(interpreter, expr, left);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+    }
+
+    private static final class DoubleGreaterEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = left(interpreter, expr);
+                return left >= right(interpreter, expr, left);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+    }
+
+    private static final class DoubleLess extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = left(interpreter, expr);
+                return left < right(interpreter, expr, left);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+    }
+
+    private static final class DoubleLessEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            try {
+                double left = left(interpreter, expr);
+                return left <= right(interpreter, expr, left);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+    }
+
+    private static final class StringConcat extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            if (left instanceof String && right instanceof String) {
+                return (String) left + (String) right;
+            }
+            return generalize(expr, left, right).value;
+        }
+    }
+
+    private static final class Equal extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return Interpreter.isEqual(left, interpreter.evaluate(expr.right));
+        }
+    }
+
+    private static final class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return !Interpreter.isEqual(left, interpreter.evaluate(expr.right));
+        }
+    }
+
+    /** Handles any operands, reporting the same errors as a type mismatch would. */
+    private static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            return apply(expr.operator, left, interpreter.evaluate(expr.right));
+        }
+
+        static Object apply(Token operator, Object left, Object right) {
+            switch (operator.type) {
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        return (double) left + (double) right;
+                    }
+                    if (left instanceof String && right instanceof String) {
+                        return (String) left + (String) right;
+                    }
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                case BANG_EQUAL:
+                    return !Interpreter.isEqual(left, right);
+                case EQUAL_EQUAL:
+                    return Interpreter.isEqual(left, right);
+                default:
+                    break;
+            }
+
+            if (!(left instanceof Double && right instanceof Double)) {
+                throw new RuntimeError(operator, "Operand must be a number");
+            }
+            double a = (double) left;
+            double b = (double) right;
+            switch (operator.type) {
+                case MINUS: return a - b;
+                case SLASH: return a / b;
+                case STAR: return a * b;
+                case GREATER: return a > b;
+                case GREATER_EQUAL: return a >= b;
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+                default:
+                    throw new IllegalArgumentException("Not a binary operator: " + operator.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.Expr.Assign;
+import com.example.Expr.Binary;
+import com.example.Expr.Call;
+import com.example.Expr.Get;
+import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
+import com.example.Expr.Literal;
+import com.example.Expr.Logical;
+import com.example.Expr.Set;
+import com.example.Expr.Super;
+import com.example.Expr.This;
+import com.example.Expr.Unary;
+import com.example.Expr.Variable;
+import com.example.Stmt.Block;
+import com.example.Stmt.Class;
+import com.example.Stmt.Expression;
+import com.example.Stmt.For;
+import com.example.Stmt.Function;
+import com.example.Stmt.If;
+import com.example.Stmt.Print;
+import com.example.Stmt.Return;
+import com.example.Stmt.Var;
+import com.example.Stmt.While;
+import com.example.Token.TokenType;
+
+/**
+ * Compiles a resolved syntax tree into chunks for the Vm.
+ *
+ * The Resolver numbers locals by scope, in the same order they are pushed on
+ * the VM stack, so a (depth, slot) pair maps onto a stack slot: the base of
+ * the scope plus the slot. When the scope belongs to an enclosing function the
+ * variable is reached through an upvalue instead.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+
+    private enum FunctionType {
+        SCRIPT, FUNCTION, METHOD, INITIALIZER
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Vm.ObjFunction function;
+        final FunctionType type;
+        // Each upvalue is encoded as its index, plus 0x100 if it captures a
+        // local of the enclosing function rather than one of its upvalues.
+        final List<Integer> upvalues = new ArrayList<>();
+        final boolean[] captured = new boolean[MAX_LOCALS];
+        // Slot 0 holds the function being called, or the receiver of a method.
+        int localCount = 1;
+
+        FunctionState(FunctionState enclosing, Vm.ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private static class Scope {
+        final FunctionState owner;
+        final int base;
+        int size = 0;
+
+        Scope(FunctionState owner, int base) {
+            this.owner = owner;
+            this.base = base;
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+    private FunctionState current;
+    private int line = 1;
+
+    Vm.ObjFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new Vm.ObjFunction(null, 0), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(Chunk.OP_NIL);
+        emit(Chunk.OP_RETURN);
+        current.function.chunk.finish();
+        return current.function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emit(int value) {
+        chunk().write(value, line);
+    }
+
+    private void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private void emitConstant(int op, Object value) {
+        emit(op);
+        emitShort(makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > 0xFFFF) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(int op) {
+        emit(op);
+        emitShort(0xFFFF);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int at) {
+        int jump = chunk().count - at - 2;
+        if (jump > 0xFFFF) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk().code[at] = (byte) (jump >> 8);
+        chunk().code[at + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int start) {
+        emit(Chunk.OP_LOOP);
+        int offset = chunk().count + 2 - start;
+        if (offset > 0xFFFF) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope(current, current.localCount));
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        while (current.localCount > scope.base) {
+            current.localCount--;
+            if (current.captured[current.localCount]) {
+                emit(Chunk.OP_CLOSE_UPVALUE);
+                current.captured[current.localCount] = false;
+            } else {
+                emit(Chunk.OP_POP);
+            }
+        }
+    }
+
+    /**
+     * Declares a variable holding the value on top of the stack. A local
+     * simply stays where it is.
+     */
+    private void define(Token name) {
+        if (scopes.isEmpty()) {
+            emitConstant(Chunk.OP_DEFINE_GLOBAL, name.lexeme);
+            return;
+        }
+        declareLocal(name);
+    }
+
+    private void declareLocal(Token name) {
+        if (current.localCount == MAX_LOCALS) {
+            Lox.error(name, "Too many local variables in function.");
+            return;
+        }
+        scopes.get(scopes.size() - 1).size++;
+        current.localCount++;
+    }
+
+    private void load(int depth, int slot) {
+        Scope scope = scopes.get(scopes.size() - 1 - depth);
+        int index = scope.base + slot;
+        if (scope.owner == current) {
+            emit(Chunk.OP_GET_LOCAL);
+            emit(index);
+        } else {
+            emit(Chunk.OP_GET_UPVALUE);
+            emit(upvalue(current, scope.owner, index));
+        }
+    }
+
+    private void store(int depth, int slot) {
+        Scope scope = scopes.get(scopes.size() - 1 - depth);
+        int index = scope.base + slot;
+        if (scope.owner == current) {
+            emit(Chunk.OP_SET_LOCAL);
+            emit(index);
+        } else {
+            emit(Chunk.OP_SET_UPVALUE);
+            emit(upvalue(current, scope.owner, index));
+        }
+    }
+
+    private int upvalue(FunctionState state, FunctionState owner, int index) {
+        if (state.enclosing == owner) {
+            owner.captured[index] = true;
+            return addUpvalue(state, index, true);
+        }
+        return addUpvalue(state, upvalue(state.enclosing, owner, index), false);
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        int encoded = (isLocal ? 0x100 : 0) | index;
+        int existing = state.upvalues.indexOf(encoded);
+        if (existing >= 0) return existing;
+
+        if (state.upvalues.size() == MAX_LOCALS) {
+            Lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(encoded);
+        return state.upvalues.size() - 1;
+    }
+
+    private void function(Function declaration, FunctionType type) {
+        line = declaration.name.line;
+        FunctionState state = new FunctionState(current,
+                new Vm.ObjFunction(declaration.name.lexeme, declaration.params.size()), type);
+        current = state;
+
+        int enclosingScopes = scopes.size();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // The Resolver's scope for 'this' is slot 0 of the method's frame.
+            Scope receiver = new Scope(state, 0);
+            receiver.size = 1;
+            scopes.add(receiver);
+        }
+        beginScope();
+        for (Token param : declaration.params) {
+            declareLocal(param);
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        // Returning discards the frame and closes its upvalues, so the scopes
+        // are dropped without emitting pops.
+        while (scopes.size() > enclosingScopes) {
+            scopes.remove(scopes.size() - 1);
+        }
+        current = state.enclosing;
+        state.function.upvalueCount = state.upvalues.size();
+        state.function.chunk.finish();
+
+        emitConstant(Chunk.OP_CLOSURE, state.function);
+        for (int upvalue : state.upvalues) {
+            emit((upvalue & 0x100) != 0 ? 1 : 0);
+            emit(upvalue & 0xFF);
+        }
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(Chunk.OP_GET_LOCAL);
+            emit(0);
+        } else {
+            emit(Chunk.OP_NIL);
+        }
+        emit(Chunk.OP_RETURN);
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        if (stmt.scoped) beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        if (stmt.scoped) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        compile(stmt.expression);
+        emit(Chunk.OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        line = stmt.name.line;
+        emitConstant(Chunk.OP_CLASS, stmt.name.lexeme);
+        define(stmt.name);
+        // Globals are reloaded by name; a local class stays in its slot.
+        int classSlot = scopes.isEmpty() ? -1 : current.localCount - 1;
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            beginScope();
+            declareLocal(stmt.superclass.name);
+            loadClass(stmt.name, classSlot);
+            line = stmt.superclass.name.line;
+            emit(Chunk.OP_INHERIT);
+        }
+
+        loadClass(stmt.name, classSlot);
+        for (Function method : stmt.methods) {
+            boolean isInitializer = method.name.lexeme.equals("init");
+            function(method, isInitializer ? FunctionType.INITIALIZER : FunctionType.METHOD);
+            emitConstant(Chunk.OP_METHOD, method.name.lexeme);
+        }
+        emit(Chunk.OP_POP);
+
+        if (stmt.superclass != null) {
+            endScope();
+        }
+        return null;
+    }
+
+    private void loadClass(Token name, int slot) {
+        if (slot < 0) {
+            emitConstant(Chunk.OP_GET_GLOBAL, name.lexeme);
+        } else {
+            emit(Chunk.OP_GET_LOCAL);
+            emit(slot);
+        }
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        function(stmt, FunctionType.FUNCTION);
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        compile(stmt.expression);
+        emit(Chunk.OP_PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+            return null;
+        }
+        compile(stmt.value);
+        emit(Chunk.OP_RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(Chunk.OP_NIL);
+        }
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(Chunk.OP_JUMP_IF_FALSE);
+        emit(Chunk.OP_POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(Chunk.OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        if (stmt.scoped) beginScope();
+        if (stmt.initializer != null) compile(stmt.initializer);
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(Chunk.OP_JUMP_IF_FALSE);
+        emit(Chunk.OP_POP);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(Chunk.OP_POP);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(Chunk.OP_POP);
+        if (stmt.scoped) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(Chunk.OP_JUMP_IF_FALSE);
+        emit(Chunk.OP_POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(Chunk.OP_JUMP);
+        patchJump(thenJump);
+        emit(Chunk.OP_POP);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(Chunk.OP_SUBTRACT); break;
+            case PLUS: emit(Chunk.OP_ADD); break;
+            case SLASH: emit(Chunk.OP_DIVIDE); break;
+            case STAR: emit(Chunk.OP_MULTIPLY); break;
+            case GREATER: emit(Chunk.OP_GREATER); break;
+            case GREATER_EQUAL: emit(Chunk.OP_GREATER_EQUAL); break;
+            case LESS: emit(Chunk.OP_LESS); break;
+            case LESS_EQUAL: emit(Chunk.OP_LESS_EQUAL); break;
+            case BANG_EQUAL: emit(Chunk.OP_NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(Chunk.OP_EQUAL); break;
+            default:
+                throw new IllegalArgumentException("Not a binary operator: " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        if (expr.callee instanceof Super) {
+            Super callee = (Super) expr.callee;
+            load(callee.depth - 1, 0);
+            arguments(expr.arguments);
+            load(callee.depth, 0);
+            line = callee.method.line;
+            emitConstant(Chunk.OP_SUPER_INVOKE, callee.method.lexeme);
+            emit(expr.arguments.size());
+            return null;
+        }
+        compile(expr.callee);
+        arguments(expr.arguments);
+        line = expr.paren.line;
+        emit(Chunk.OP_CALL);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    /** The VM always makes the call; only the Interpreter inlines. */
+    @Override
+    public Void visitInlineExpr(Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Void visitInvokeExpr(Invoke expr) {
+        compile(expr.object);
+        arguments(expr.arguments);
+        line = expr.name.line;
+        emitConstant(Chunk.OP_INVOKE, expr.name.lexeme);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    private void arguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitConstant(Chunk.OP_GET_PROPERTY, expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitConstant(Chunk.OP_SET_PROPERTY, expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) {
+            emit(Chunk.OP_NIL);
+        } else if (expr.value instanceof Boolean) {
+            emit((Boolean) expr.value ? Chunk.OP_TRUE : Chunk.OP_FALSE);
+        } else {
+            emitConstant(Chunk.OP_CONSTANT, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.AND) {
+            int endJump = emitJump(Chunk.OP_JUMP_IF_FALSE);
+            emit(Chunk.OP_POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int elseJump = emitJump(Chunk.OP_JUMP_IF_FALSE);
+            int endJump = emitJump(Chunk.OP_JUMP);
+            patchJump(elseJump);
+            emit(Chunk.OP_POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? Chunk.OP_NOT : Chunk.OP_NEGATE);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        line = expr.keyword.line;
+        load(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        line = expr.method.line;
+        load(expr.depth - 1, 0);
+        load(expr.depth, 0);
+        emitConstant(Chunk.OP_GET_SUPER, expr.method.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        line = expr.name.line;
+        if (expr.depth < 0) {
+            emitConstant(Chunk.OP_GET_GLOBAL, expr.name.lexeme);
+        } else {
+            load(expr.depth, expr.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if (expr.depth < 0) {
+            emitConstant(Chunk.OP_SET_GLOBAL, expr.name.lexeme);
+        } else {
+            store(expr.depth, expr.slot);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example;
+
+/**
+ * Where a new closure gets one of its cells, as worked out by the Resolver:
+ * a captured local of the code creating it, {@code depth} scopes out in slot
+ * {@code index}, or cell {@code index} of that code's own closure.
+ *
+ * A method's first cell holds its receiver. It is left empty when the method
+ * is created and filled in when the method is bound to an instance.
+ */
+final class Capture {
+    enum Kind {
+        LOCAL, UPVALUE, RECEIVER
+    }
+
+    static final Capture[] NONE = new Capture[0];
+    static final Capture RECEIVER = new Capture(Kind.RECEIVER, 0, 0);
+
+    final Kind kind;
+    final int depth;
+    final int index;
+
+    private Capture(Kind kind, int depth, int index) {
+        this.kind = kind;
+        this.depth = depth;
+        this.index = index;
+    }
+
+    static Capture local(int depth, int slot) {
+        return new Capture(Kind.LOCAL, depth, slot);
+    }
+
+    static Capture upvalue(int index) {
+        return new Capture(Kind.UPVALUE, 0, index);
+    }
+}
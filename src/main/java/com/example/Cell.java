@@ -0,0 +1,16 @@
+package com.example;
+
+/**
+ * A local variable that a closure captures. The frame that declares it and
+ * every closure that uses it share the one cell, so an assignment through any
+ * of them is seen by the rest. Locals nothing captures are never boxed.
+ */
+final class Cell {
+    static final Cell[] NONE = new Cell[0];
+
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled function body for the Vm: a flat instruction array, the line
+ * each instruction came from, and a constant pool.
+ *
+ * Operands follow their opcode. Constant indexes and jump offsets are two
+ * bytes, big-endian; local slots, upvalue indexes and argument counts are one
+ * byte.
+ */
+class Chunk {
+    static final byte OP_CONSTANT = 0;
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    static final byte OP_GET_LOCAL = 5;
+    static final byte OP_SET_LOCAL = 6;
+    static final byte OP_GET_GLOBAL = 7;
+    static final byte OP_DEFINE_GLOBAL = 8;
+    static final byte OP_SET_GLOBAL = 9;
+    static final byte OP_GET_UPVALUE = 10;
+    static final byte OP_SET_UPVALUE = 11;
+    static final byte OP_GET_PROPERTY = 12;
+    static final byte OP_SET_PROPERTY = 13;
+    static final byte OP_GET_SUPER = 14;
+    static final byte OP_EQUAL = 15;
+    static final byte OP_NOT_EQUAL = 16;
+    static final byte OP_GREATER = 17;
+    static final byte OP_GREATER_EQUAL = 18;
+    static final byte OP_LESS = 19;
+    static final byte OP_LESS_EQUAL = 20;
+    static final byte OP_ADD = 21;
+    static final byte OP_SUBTRACT = 22;
+    static final byte OP_MULTIPLY = 23;
+    static final byte OP_DIVIDE = 24;
+    static final byte OP_NOT = 25;
+    static final byte OP_NEGATE = 26;
+    static final byte OP_PRINT = 27;
+    static final byte OP_JUMP = 28;
+    static final byte OP_JUMP_IF_FALSE = 29;
+    static final byte OP_LOOP = 30;
+    static final byte OP_CALL = 31;
+    static final byte OP_INVOKE = 32;
+    static final byte OP_SUPER_INVOKE = 33;
+    static final byte OP_CLOSURE = 34;
+    static final byte OP_CLOSE_UPVALUE = 35;
+    static final byte OP_RETURN = 36;
+    static final byte OP_CLASS = 37;
+    static final byte OP_INHERIT = 38;
+    static final byte OP_METHOD = 39;
+
+    byte[] code = new byte[16];
+    int[] lines = new int[16];
+    int count = 0;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants = new Object[0];
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Adds a constant, reusing an existing entry for an equal string or
+     * number, and returns its index.
+     */
+    int addConstant(Object value) {
+        boolean shared = value instanceof String || value instanceof Double;
+        if (shared) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) return existing;
+        }
+        constantList.add(value);
+        if (shared) constantIndex.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    /**
+     * Trims the code to size and freezes the constant pool once the compiler
+     * is done with this chunk.
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,479 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file assembler for JvmCompiler. Classes are written
+ * as version 49 so the verifier infers stack map frames by itself and the
+ * compiler never has to compute them.
+ */
+class ClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 1, ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17;
+    static final int LDC = 18, LDC_W = 19, LDC2_W = 20;
+    static final int ILOAD = 21, DLOAD = 24, ALOAD = 25, ISTORE = 54, DSTORE = 57, ASTORE = 58;
+    static final int AALOAD = 50, AASTORE = 83, POP = 87, POP2 = 88, DUP = 89, DUP_X1 = 90, DUP2 = 92, SWAP = 95;
+    static final int DADD = 99, DSUB = 103, DMUL = 107, DDIV = 111, DNEG = 119;
+    static final int DCMPL = 151, DCMPG = 152;
+    static final int IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158;
+    static final int IF_ACMPEQ = 165, IF_ACMPNE = 166, GOTO = 167, TABLESWITCH = 170;
+    static final int IRETURN = 172, DRETURN = 175, ARETURN = 176, RETURN = 177;
+    static final int GETSTATIC = 178, PUTSTATIC = 179, GETFIELD = 180, PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184, INVOKEINTERFACE = 185;
+    static final int NEW = 187, ANEWARRAY = 189, ATHROW = 191, CHECKCAST = 192, INSTANCEOF = 193;
+
+    private static final int MAX_CODE = 0xFFFF;
+
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3, CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7, CONSTANT_STRING = 8, CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10, CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<int[]> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    ClassWriter(int access, String name, String superName, String... interfaceNames) {
+        this.access = access | ACC_SUPER;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    void field(int access, String name, String descriptor) {
+        fields.add(new int[] { access, utf8(name), utf8(descriptor) });
+    }
+
+    Method method(int access, String name, String descriptor) {
+        Method method = new Method(access, utf8(name), utf8(descriptor), descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int code = utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) out.writeShort(i);
+
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                method.write(out, code);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, out -> out.writeUTF(value));
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, CONSTANT_CLASS, out -> out.writeShort(name));
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return constant("S" + value, CONSTANT_STRING, out -> out.writeShort(utf8));
+    }
+
+    int integer(int value) {
+        return constant("I" + value, CONSTANT_INTEGER, out -> out.writeInt(value));
+    }
+
+    int doubleConstant(double value) {
+        int index = constant("D" + Double.doubleToRawLongBits(value), CONSTANT_DOUBLE,
+                out -> out.writeDouble(value));
+        // Doubles take up two entries in the constant pool.
+        if (index == poolCount - 1) poolCount++;
+        return index;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + "." + name + ":" + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, Entry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        if (poolCount >= 0xFFFF) {
+            throw new IllegalStateException("Constant pool overflow.");
+        }
+        try {
+            poolOut.writeByte(tag);
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    static class Label {
+        private int position = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    /**
+     * A method body. Stack depth and local count are tracked as instructions
+     * are emitted, which is exact for the structured code the compiler emits.
+     */
+    class Method {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private final List<int[]> switchTargets = new ArrayList<>();
+        private final List<Label> switchLabels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Method(int access, int name, int descriptor, String descriptorText) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots(descriptorText) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        int size() {
+            return code.size();
+        }
+
+        /**
+         * Checks the code against the class file's limits on method size and
+         * on how far a jump can reach. Every jump target must be marked.
+         */
+        boolean fits() {
+            if (code.size() > MAX_CODE) return false;
+            for (Label label : labels) {
+                for (int at : label.jumps) {
+                    int offset = label.position - at;
+                    if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) return false;
+                }
+            }
+            return true;
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+            adjust(stackEffect(opcode));
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+                adjust(1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                u2(value);
+                adjust(1);
+            } else {
+                ldc(integer(value), 1);
+            }
+        }
+
+        void ldcString(String value) {
+            ldc(string(value), 1);
+        }
+
+        void ldcDouble(double value) {
+            code.write(LDC2_W);
+            u2(doubleConstant(value));
+            adjust(2);
+        }
+
+        private void ldc(int index, int effect) {
+            if (index < 256) {
+                code.write(LDC);
+                code.write(index);
+            } else {
+                code.write(LDC_W);
+                u2(index);
+            }
+            adjust(effect);
+        }
+
+        void load(int opcode, int local) {
+            local(opcode, local);
+            adjust(opcode == DLOAD ? 2 : 1);
+            maxLocals = Math.max(maxLocals, local + (opcode == DLOAD ? 2 : 1));
+        }
+
+        void store(int opcode, int local) {
+            local(opcode, local);
+            adjust(opcode == DSTORE ? -2 : -1);
+            maxLocals = Math.max(maxLocals, local + (opcode == DSTORE ? 2 : 1));
+        }
+
+        private void local(int opcode, int local) {
+            if (local > 255) {
+                code.write(196);
+                code.write(opcode);
+                u2(local);
+            } else {
+                code.write(opcode);
+                code.write(local);
+            }
+        }
+
+        void type(int opcode, String internalName) {
+            code.write(opcode);
+            u2(classRef(internalName));
+            if (opcode == NEW) adjust(1);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            code.write(opcode);
+            u2(fieldRef(owner, name, descriptor));
+            int size = descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+            switch (opcode) {
+                case GETSTATIC: adjust(size); break;
+                case PUTSTATIC: adjust(-size); break;
+                case GETFIELD: adjust(size - 1); break;
+                case PUTFIELD: adjust(-size - 1); break;
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int argumentSlots = argumentSlots(descriptor);
+            code.write(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                u2(interfaceMethodRef(owner, name, descriptor));
+                code.write(argumentSlots + 1);
+                code.write(0);
+            } else {
+                u2(methodRef(owner, name, descriptor));
+            }
+            char returnType = descriptor.charAt(descriptor.indexOf(')') + 1);
+            int result = returnType == 'V' ? 0 : (returnType == 'D' || returnType == 'J') ? 2 : 1;
+            adjust(result - argumentSlots - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void jump(int opcode, Label target) {
+            target.jumps.add(code.size());
+            labels.add(target);
+            code.write(opcode);
+            u2(0);
+            adjust(stackEffect(opcode));
+        }
+
+        void mark(Label label) {
+            label.position = code.size();
+        }
+
+        /**
+         * Emits a tableswitch over 0 to cases.length - 1.
+         */
+        void tableSwitch(Label defaultLabel, Label[] cases) {
+            int start = code.size();
+            code.write(TABLESWITCH);
+            adjust(-1);
+            while (code.size() % 4 != 0) code.write(0);
+            switchTarget(start, defaultLabel);
+            u4(0);
+            u4(cases.length - 1);
+            for (Label label : cases) {
+                switchTarget(start, label);
+            }
+        }
+
+        private void switchTarget(int start, Label label) {
+            switchTargets.add(new int[] { start, code.size() });
+            switchLabels.add(label);
+            u4(0);
+        }
+
+        private void adjust(int effect) {
+            stack += effect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /**
+         * Resets the tracked stack depth, for code that follows an
+         * unconditional jump or a return.
+         */
+        void stack(int depth) {
+            stack = depth;
+        }
+
+        private void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        private void write(DataOutputStream out, int codeName) throws IOException {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > MAX_CODE) {
+                throw new IllegalStateException("Method too large.");
+            }
+            for (Label label : labels) {
+                for (int at : label.jumps) {
+                    int offset = label.position - at;
+                    if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) {
+                        throw new IllegalStateException("Jump too far.");
+                    }
+                    bytes[at + 1] = (byte) (offset >> 8);
+                    bytes[at + 2] = (byte) offset;
+                }
+                label.jumps.clear();
+            }
+            for (int i = 0; i < switchTargets.size(); i++) {
+                int[] target = switchTargets.get(i);
+                int offset = switchLabels.get(i).position - target[0];
+                bytes[target[1]] = (byte) (offset >> 24);
+                bytes[target[1] + 1] = (byte) (offset >> 16);
+                bytes[target[1] + 2] = (byte) (offset >> 8);
+                bytes[target[1] + 3] = (byte) offset;
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    private static int stackEffect(int opcode) {
+        switch (opcode) {
+            case ACONST_NULL: case DUP: case DUP_X1:
+                return 1;
+            case DUP2:
+                return 2;
+            case POP: case AALOAD:
+                return -1;
+            case AASTORE:
+                return -3;
+            case POP2:
+                return -2;
+            case DADD: case DSUB: case DMUL: case DDIV:
+                return -2;
+            case DCMPL: case DCMPG:
+                return -3;
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+                return -1;
+            case IF_ACMPEQ: case IF_ACMPNE:
+                return -2;
+            case IRETURN: case ARETURN: case ATHROW:
+                return -1;
+            case DRETURN:
+                return -2;
+            case SWAP: case DNEG: case GOTO: case RETURN: case CHECKCAST: case INSTANCEOF: case ANEWARRAY:
+                return 0;
+            default:
+                if (opcode >= ICONST_0 - 1 && opcode <= ICONST_0 + 5) return 1;
+                throw new IllegalArgumentException("No stack effect for opcode " + opcode);
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'D' || c == 'J') {
+                slots += 2;
+                i++;
+            } else {
+                slots++;
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i) + 1;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return slots;
+    }
+}
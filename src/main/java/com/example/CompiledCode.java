@@ -0,0 +1,11 @@
+package com.example;
+
+/**
+ * Entry point into a class generated by JvmCompiler. Every function compiled
+ * into the class is reached through its index; index 0 is the top-level
+ * script when there is one. Only the first arity slots of the arguments are
+ * read.
+ */
+interface CompiledCode {
+    Object invoke(int function, Interpreter interpreter, Cell[] upvalues, Object[] arguments);
+}
@@ -0,0 +1,13 @@
+package com.example;
+
+/**
+ * How a statement run by the Interpreter finished. Blocks, branches and
+ * loops stop at the first statement that does not complete normally and
+ * pass its completion on, up to the LoxFunction that handles it. A return
+ * leaves its value in the Interpreter for the function to take. Runtime
+ * errors still unwind as exceptions, since they end the script.
+ */
+enum Completion {
+    NORMAL,
+    RETURN
+}
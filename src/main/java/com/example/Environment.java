@@ -1,23 +1,44 @@
 package com.example;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
-    
+    private static final Object[] NO_SLOTS = new Object[0];
+    static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment is keyed by name; locals live in slots
+    // assigned by the Resolver.
+    private final Map<String, Object> values;
+    private Object[] slots = NO_SLOTS;
+    private int count = 0;
 
     Environment () {
         this.enclosing = null;
+        this.values = new HashMap<>();
     }
- 
+
     Environment (Environment enclosing) {
         this.enclosing = enclosing;
+        this.values = null;
+    }
+
+    /**
+     * Creates a local environment whose first {@code count} slots are
+     * already filled in, such as a call frame holding its arguments. The
+     * array is used as is.
+     */
+    Environment (Environment enclosing, Object[] slots, int count) {
+        this.enclosing = enclosing;
+        this.values = null;
+        this.slots = slots;
+        this.count = count;
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
+        if (values != null && values.containsKey(name.lexeme)) {
             return values.get(name.lexeme);
         }
 
@@ -28,12 +49,31 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable: '" + name.lexeme + "'.");
     }
 
+    /**
+     * Looks a global up without a Token, for callers that only build one
+     * when there is an error to report. Returns UNDEFINED if there is none.
+     */
+    Object lookup(String name) {
+        return values.getOrDefault(name, UNDEFINED);
+    }
+
     void define(String name, Object value) {
         values.put(name, value);
     }
 
+    /**
+     * Defines the next local slot. Locals are defined in the same order the
+     * Resolver numbered them, so the slot index is implied.
+     */
+    void define(Object value) {
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+        }
+        slots[count++] = value;
+    }
+
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
+        if (values != null && values.containsKey(name.lexeme)) {
             values.put(name.lexeme, value);
             return;
         }
@@ -45,8 +85,8 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable: '" + name.lexeme + "'.");
     }
 
-    Object getAt(Integer distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     Environment ancestor(int distance) {
@@ -57,7 +97,7 @@ public class Environment {
         return environment;
     }
 
-    void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
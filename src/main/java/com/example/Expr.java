@@ -7,6 +7,8 @@ abstract class Expr {
         R visitBinaryExpr(Binary expr);
         R visitCallExpr(Call expr);
         R visitGetExpr(Get expr);
+        R visitInlineExpr(Inline expr);
+        R visitInvokeExpr(Invoke expr);
         R visitSetExpr(Set expr);
         R visitGroupingExpr(Grouping expr);
         R visitLiteralExpr(Literal expr);
@@ -34,6 +36,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
     }
 
     static class Call extends Expr {
@@ -68,6 +71,44 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        PropertyCache cache = new PropertyCache();
+    }
+
+    static class Inline extends Expr {
+        Inline (Expr.Call call) {
+            this.call = call;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitInlineExpr(this);
+        }
+
+
+        final Expr.Call call;
+        Stmt.Function function;
+        boolean deoptimized;
+    }
+
+    static class Invoke extends Expr {
+        Invoke (Expr object, Token name, Token paren, List<Expr> arguments) {
+            this.object = object;
+            this.name = name;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitInvokeExpr(this);
+        }
+
+
+        final Expr object;
+        final Token name;
+        final Token paren;
+        final List<Expr> arguments;
+        PropertyCache cache = new PropertyCache();
     }
 
     static class Set extends Expr {
@@ -86,6 +127,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        PropertyCache cache = new PropertyCache();
     }
 
     static class Grouping extends Expr {
@@ -162,6 +204,9 @@ abstract class Expr {
 
 
         final Token keyword;
+        int depth = -1;
+        int slot;
+        int upvalue = -1;
     }
 
     static class Super extends Expr {
@@ -178,6 +223,11 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        int depth = -1;
+        int upvalue = -1;
+        int receiver = -1;
+        LoxClass superclass;
+        LoxFunction target;
     }
 
     static class Variable extends Expr {
@@ -192,6 +242,10 @@ abstract class Expr {
 
 
         final Token name;
+        int depth = -1;
+        int slot;
+        int upvalue = -1;
+        boolean cell;
     }
 
     static class Assign extends Expr {
@@ -208,6 +262,10 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
+        int upvalue = -1;
+        boolean cell;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
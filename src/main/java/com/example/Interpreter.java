@@ -1,7 +1,6 @@
 package com.example;
 
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +10,8 @@ import com.example.Expr.Binary;
 import com.example.Expr.Call;
 import com.example.Expr.Get;
 import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
 import com.example.Expr.Literal;
 import com.example.Expr.Logical;
 import com.example.Expr.Set;
@@ -21,6 +22,7 @@ import com.example.Expr.Variable;
 import com.example.Stmt.Block;
 import com.example.Stmt.Class;
 import com.example.Stmt.Expression;
+import com.example.Stmt.For;
 import com.example.Stmt.Function;
 import com.example.Stmt.If;
 import com.example.Stmt.Print;
@@ -28,11 +30,17 @@ import com.example.Stmt.Var;
 import com.example.Stmt.While;
 import com.example.Token.TokenType;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
 
     Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // The cells the running function's closure captured.
+    private Cell[] upvalues = Cell.NONE;
+    // The function whose body is running, so loop back-edges count towards
+    // its hotness.
+    private Function running = null;
+    // The value of the return that last completed with RETURN.
+    private Object returnValue = null;
 
     Interpreter() {
         globals.define("clock", new LoxCallable() {
@@ -42,7 +50,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
 
             @Override
-            public Object call(final Interpreter interpreter, final List<Object> arguments) {
+            public Object call(final Interpreter interpreter, final Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(final Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -63,11 +76,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private void execute(final Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(final Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /** Hands over the value of the return that just completed. */
+    Object takeReturnValue() {
+        final Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
-    private String stringify(final Object value) {
+    static String stringify(final Object value) {
         if (value == null) {
             return "nil";
         }
@@ -85,48 +105,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(final Binary expr) {
-        final Object left = evaluate(expr.left);
-        final Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                return (double)left - (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
-                
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case SLASH:
-                return (double)left / (double)right;
-            case STAR:
-                return (double)left * (double)right;
-            case GREATER:
-                checkNumberOperand(expr.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperand(expr.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperand(expr.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperand(expr.operator, left, right);
-                return (double)left <= (double)right;
-            case BANG_EQUAL:
-                checkNumberOperand(expr.operator, left, right);
-                return !isEqual(left, right);
-            case BANG:
-                checkNumberOperand(expr.operator, left, right);
-                return isEqual(left, right);
-        }
-         
-        // Unreachable
-        return null;
+        return expr.node.execute(this, expr);
     }
 
     @Override
@@ -142,90 +121,111 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(final Unary expr) {
-        final Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case BANG:
-                return !isTruthy(right);
-            case MINUS: 
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+        if (expr.operator.type == TokenType.MINUS) {
+            return negate(expr);
         }
-
-        // Unreachable
-        return null;
+        return !isTruthy(evaluate(expr.right));
     }
 
-    private void checkNumberOperand(final Token operator, final Object left, final Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number");
-    }
-    
-    private void checkNumberOperand(final Token operator, final Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number");
+    private double negate(final Unary expr) {
+        try {
+            return -evaluateDouble(expr.right);
+        } catch (final UnexpectedResult result) {
+            throw new RuntimeError(expr.operator, "Operand must be a number");
+        }
     }
 
-    private boolean isEqual(final Object a, final Object b) {
+    static boolean isEqual(final Object a, final Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
         return a.equals(b);
     }
 
-    private boolean isTruthy(final Object object) {
+    static boolean isTruthy(final Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
 
         return true;
     }
 
-    private Object evaluate(final Expr expression) {
+    Object evaluate(final Expr expression) {
         return expression.accept(this);
     }
 
+    /**
+     * Evaluates an expression that should produce a number without boxing
+     * the result, so nested arithmetic only boxes the value that escapes.
+     * Throws UnexpectedResult with the value if it is not a number.
+     */
+    double evaluateDouble(final Expr expression) {
+        if (expression instanceof Binary) {
+            final Binary binary = (Binary) expression;
+            return binary.node.executeDouble(this, binary);
+        }
+        if (expression instanceof Unary && ((Unary) expression).operator.type == TokenType.MINUS) {
+            return negate((Unary) expression);
+        }
+        if (expression instanceof Grouping) {
+            return evaluateDouble(((Grouping) expression).expression);
+        }
+
+        final Object value = evaluate(expression);
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
     @Override
-    public Void visitExpressionStmt(final Expression stmt) {
+    public Completion visitExpressionStmt(final Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(final Print stmt) {
+    public Completion visitPrintStmt(final Print stmt) {
         final Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(final Var stmt) {
+    public Completion visitVarStmt(final Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, stmt.cell ? new Cell(value) : value);
+        return Completion.NORMAL;
     }
 
-    @Override
-    public Object visitVariableExpr(final Variable expr) {
-        return lookupVariable(expr.name, expr);
+    private void define(final Token name, final Object value) {
+        if (environment == globals) {
+            globals.define(name.lexeme, value);
+        } else {
+            environment.define(value);
+        }
     }
 
-    private Object lookupVariable(final Token name, final Expr expr) {
-        final Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
+    @Override
+    public Object visitVariableExpr(final Variable expr) {
+        if (expr.upvalue >= 0) {
+            return upvalues[expr.upvalue].value;
+        }
+        if (expr.depth >= 0) {
+            final Object value = environment.getAt(expr.depth, expr.slot);
+            return expr.cell ? ((Cell) value).value : value;
         }
+        return globals.get(expr.name);
     }
 
     @Override
     public Object visitAssignExpr(final Assign expr) {
         final Object value = evaluate(expr.value);
-        final Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.upvalue >= 0) {
+            upvalues[expr.upvalue].value = value;
+        } else if (expr.cell) {
+            ((Cell) environment.getAt(expr.depth, expr.slot)).value = value;
+        } else if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -233,32 +233,53 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitBlockStmt(final Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(final Block stmt) {
+        if (stmt.scoped) {
+            return executeBlock(stmt.statements, new Environment(environment));
+        }
+        return executeAll(stmt.statements);
     }
 
-    void executeBlock(final List<Stmt> statements, final Environment environment) {
+    Completion executeBlock(final List<Stmt> statements, final Environment environment) {
         final Environment prev = this.environment;
         try {
             this.environment = environment;
-            for (final Stmt stmt : statements) {
-                execute(stmt);
-            }
+            return executeAll(statements);
         } finally {
             this.environment = prev;
         }
     }
 
+    private Completion executeAll(final List<Stmt> statements) {
+        for (final Stmt stmt : statements) {
+            final Completion completion = execute(stmt);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+    Completion executeFunction(final Function declaration, final Cell[] upvalues, final Environment environment) {
+        final Function caller = running;
+        final Cell[] callerUpvalues = this.upvalues;
+        try {
+            running = declaration;
+            this.upvalues = upvalues;
+            return executeBlock(declaration.body, environment);
+        } finally {
+            running = caller;
+            this.upvalues = callerUpvalues;
+        }
+    }
+
     @Override
-    public Void visitIfStmt(final If stmt) {
+    public Completion visitIfStmt(final If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -275,52 +296,293 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitWhileStmt(final While stmt) {
+    public Completion visitWhileStmt(final While stmt) {
         while(isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            final Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+            if (running != null) running.hotness++;
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitForStmt(final For stmt) {
+        if (!stmt.scoped) {
+            return executeFor(stmt);
+        }
+        final Environment prev = this.environment;
+        try {
+            this.environment = new Environment(environment);
+            return executeFor(stmt);
+        } finally {
+            this.environment = prev;
+        }
+    }
+
+    private Completion executeFor(final For stmt) {
+        if (stmt.initializer != null) {
+            execute(stmt.initializer);
+        }
+        if (stmt.counted) {
+            final Completion completion = executeCounted(stmt);
+            if (completion != null) return completion;
+        }
+        while (isTruthy(evaluate(stmt.condition))) {
+            final Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
+            if (running != null) running.hotness++;
+        }
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Runs a loop the Resolver found counted, keeping the counter in a double
+     * and only boxing it for the body, which sees it in slot 0 of the loop's
+     * scope. If the body stores a number there the loop counts on from it.
+     * A bound that is not a number raises the usual operand error. Only a
+     * counter that is not a number falls back: this returns null to have
+     * the loop finished generically, after the increment of the current
+     * iteration if the body already ran.
+     */
+    private Completion executeCounted(final For stmt) {
+        final Binary condition = (Binary) stmt.condition;
+        final Binary increment = (Binary) ((Assign) stmt.increment).value;
+        double step = (double) ((Literal) increment.right).value;
+        if (increment.operator.type == TokenType.MINUS) step = -step;
+
+        Object boxed = environment.getAt(0, 0);
+        if (!(boxed instanceof Double)) return null;
+        double counter = (double) boxed;
+        for (;;) {
+            final double bound;
+            try {
+                bound = evaluateDouble(condition.right);
+            } catch (final UnexpectedResult result) {
+                throw new RuntimeError(condition.operator, "Operand must be a number");
+            }
+            if (!compare(condition.operator.type, counter, bound)) return Completion.NORMAL;
+
+            final Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+            if (running != null) running.hotness++;
+
+            final Object current = environment.getAt(0, 0);
+            if (current != boxed) {
+                if (!(current instanceof Double)) {
+                    evaluate(stmt.increment);
+                    return null;
+                }
+                counter = (double) current;
+            }
+            counter += step;
+            boxed = counter;
+            environment.assignAt(0, 0, boxed);
+        }
+    }
+
+    private static boolean compare(final TokenType operator, final double left, final double right) {
+        switch (operator) {
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case GREATER: return left > right;
+            default: return left >= right;
         }
-        return null;
     }
 
     @Override
     public Object visitCallExpr(final Call expr) {
         final Object callee = evaluate(expr.callee);
-        final List<Object> arguments = new ArrayList<>();
-        for (final Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        return call(callee, expr.paren, expr.arguments);
+    }
+
+    /**
+     * Evaluates the returned expression of the inlined function in place of
+     * the call, as long as the global still holds that function. Once it
+     * does not, the call site goes back to making the call.
+     */
+    @Override
+    public Object visitInlineExpr(final Inline expr) {
+        final Call call = expr.call;
+        final Object callee = evaluate(call.callee);
+        if (expr.deoptimized) {
+            return call(callee, call.paren, call.arguments);
+        }
+        if (!(callee instanceof LoxFunction) || !((LoxFunction) callee).declaredBy(expr.function)) {
+            expr.deoptimized = true;
+            return call(callee, call.paren, call.arguments);
+        }
+
+        final Object[] frame = evaluateArguments((LoxFunction) callee, call.arguments);
+        final Environment caller = environment;
+        final Cell[] callerUpvalues = upvalues;
+        try {
+            environment = new Environment(null, frame, call.arguments.size());
+            upvalues = Cell.NONE;
+            return evaluate(((Stmt.Return) expr.function.body.get(0)).value);
+        } finally {
+            environment = caller;
+            upvalues = callerUpvalues;
+        }
+    }
+
+    @Override
+    public Object visitInvokeExpr(final Invoke expr) {
+        return invoke(expr, false);
+    }
+
+    /**
+     * Calls a method. In tail position a call to a Lox method is returned as
+     * a TailCall instead of being made.
+     */
+    private Object invoke(final Invoke expr, final boolean tail) {
+        final Object object = evaluate(expr.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(expr.name, "Only instances have properties");
+        }
+        final LoxInstance instance = (LoxInstance) object;
+        final LoxFunction method = instance.findMethod(expr.name.lexeme, expr.name.line, expr.cache);
+        if (method == null) {
+            final Object callee = instance.get(expr.name.lexeme, expr.name.line, expr.cache);
+            return call(callee, expr.paren, expr.arguments);
+        }
+
+        final Object[] frame = evaluateArguments(method, expr.arguments);
+        checkArity(method, expr.paren, expr.arguments.size());
+        return tail ? method.tailInvoke(instance, frame) : method.invoke(this, instance, frame);
+    }
+
+    /** Evaluates the arguments straight into a frame for the function. */
+    private Object[] evaluateArguments(final LoxFunction function, final List<Expr> arguments) {
+        final int count = arguments.size();
+        final Object[] frame = count == function.arity() ? function.frame() : new Object[count];
+        for (int i = 0; i < count; i++) {
+            frame[i] = evaluate(arguments.get(i));
+        }
+        return frame;
+    }
+
+    /** Evaluates the value of a return whose value is a call, see TailCall. */
+    private Object evaluateTailCall(final Expr expr) {
+        if (expr instanceof Invoke) {
+            return invoke((Invoke) expr, true);
         }
+
+        final Call call = (Call) expr;
+        final Object callee = evaluate(call.callee);
+        if (!(callee instanceof LoxFunction)) {
+            return call(callee, call.paren, call.arguments);
+        }
+        final LoxFunction function = (LoxFunction) callee;
+        final Object[] frame = evaluateArguments(function, call.arguments);
+        checkArity(function, call.paren, call.arguments.size());
+        return function.tailCall(frame);
+    }
+
+    /**
+     * Evaluates the arguments and calls through the entry point for their
+     * count, so calls with up to four arguments do not collect them first.
+     */
+    private Object call(final Object callee, final Token paren, final List<Expr> arguments) {
+        switch (arguments.size()) {
+            case 0:
+                return callable(callee, paren, 0).call0(this);
+            case 1: {
+                final Object a = evaluate(arguments.get(0));
+                return callable(callee, paren, 1).call1(this, a);
+            }
+            case 2: {
+                final Object a = evaluate(arguments.get(0));
+                final Object b = evaluate(arguments.get(1));
+                return callable(callee, paren, 2).call2(this, a, b);
+            }
+            case 3: {
+                final Object a = evaluate(arguments.get(0));
+                final Object b = evaluate(arguments.get(1));
+                final Object c = evaluate(arguments.get(2));
+                return callable(callee, paren, 3).call3(this, a, b, c);
+            }
+            case 4: {
+                final Object a = evaluate(arguments.get(0));
+                final Object b = evaluate(arguments.get(1));
+                final Object c = evaluate(arguments.get(2));
+                final Object d = evaluate(arguments.get(3));
+                return callable(callee, paren, 4).call4(this, a, b, c, d);
+            }
+            default: {
+                final Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return callable(callee, paren, values.length).call(this, values);
+            }
+        }
+    }
+
+    private LoxCallable callable(final Object callee, final Token paren, final int count) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            throw new RuntimeError(paren, "Can only call functions and classes");
         }
         final LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size());
+        checkArity(function, paren, count);
+        return function;
+    }
+
+    private void checkArity(final LoxCallable function, final Token paren, final int count) {
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + count);
         }
-        return function.call(this, arguments);
     }
 
     @Override
-    public Void visitFunctionStmt(final Function stmt) {
-        final LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(final Function stmt) {
+        if (stmt.cell) {
+            // The function may capture itself, so its cell comes first.
+            final Cell cell = new Cell(null);
+            define(stmt.name, cell);
+            cell.value = new LoxFunction(stmt, capture(stmt), false);
+        } else {
+            define(stmt.name, new LoxFunction(stmt, capture(stmt), false));
+        }
+        return Completion.NORMAL;
+    }
+
+    /** Collects the cells a new closure for the declaration captures. */
+    private Cell[] capture(final Function declaration) {
+        final Capture[] captures = declaration.captures;
+        if (captures.length == 0) return Cell.NONE;
+
+        final Cell[] cells = new Cell[captures.length];
+        for (int i = 0; i < cells.length; i++) {
+            final Capture capture = captures[i];
+            switch (capture.kind) {
+                case LOCAL:
+                    cells[i] = (Cell) environment.getAt(capture.depth, capture.index);
+                    break;
+                case UPVALUE:
+                    cells[i] = upvalues[capture.index];
+                    break;
+                case RECEIVER:
+                    break;
+            }
+        }
+        return cells;
     }
 
     @Override
-    public Void visitReturnStmt(final Stmt.Return stmt) {
+    public Completion visitReturnStmt(final Stmt.Return stmt) {
         Object value = null;
         if (stmt.value != null) {
-            value = evaluate(stmt.value);
+            value = stmt.tailCall ? evaluateTailCall(stmt.value) : evaluate(stmt.value);
         }
-        throw new Return(value);
-    }
-
-    void resolve(final Expr expr, final int depth) {
-        locals.put(expr, depth);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitClassStmt(final Class stmt) {
+    public Completion visitClassStmt(final Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -328,18 +590,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
-          
+        Cell cell = null;
+        if (stmt.cell) {
+            cell = new Cell(null);
+            define(stmt.name, cell);
+        }
         if (stmt.superclass != null) {
             environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment.define(new Cell(superclass));
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             LoxFunction function = new LoxFunction(
                 method,
-                environment,
+                capture(method),
                 method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
@@ -347,15 +612,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (superclass != null) {
             environment = environment.enclosing;
         }
-        environment.assign(stmt.name, kclass);
-        return null;
+        // Only the methods can observe the class name before this point, so
+        // unless they capture it it is defined once, in the slot the Resolver
+        // gave it.
+        if (cell != null) {
+            cell.value = kclass;
+        } else {
+            define(stmt.name, kclass);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitGetExpr(final Get expr) {
         final Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr.name.lexeme, expr.name.line, expr.cache);
         }
         throw new RuntimeError(expr.name, "Only instances have properties");
     }
@@ -367,27 +639,31 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        ((LoxInstance)object).set(expr.name.lexeme, value, expr.cache);
         return value;
     }
 
     @Override
     public Object visitThisExpr(This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return upvalues[expr.upvalue].value;
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
-
-        if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        LoxClass superclass = (LoxClass) upvalues[expr.upvalue].value;
+        LoxInstance object = (LoxInstance) upvalues[expr.receiver].value;
+        // The superclass only changes if the class declaration runs again,
+        // so the target is resolved once per superclass.
+        if (superclass != expr.superclass) {
+            LoxFunction method = superclass.findMethod(expr.method.lexeme);
+            if (method == null) {
+                throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            expr.superclass = superclass;
+            expr.target = method;
         }
 
-        return method.bind(object);
+        return expr.target.bind(object);
     }
 }
 
@@ -0,0 +1,52 @@
+package com.example;
+
+import java.lang.invoke.MethodHandles;
+
+import com.example.Stmt.Function;
+
+/**
+ * Second tier for interpreted functions. Every call and every loop back-edge
+ * in a function's body adds to the hotness of its declaration; once that
+ * reaches the threshold the declaration is compiled with JvmCompiler into a
+ * hidden class, and later calls through any LoxFunction for it run the
+ * compiled body.
+ *
+ * The threshold can be set with the {@code lox.jitThreshold} system property;
+ * zero or less turns the tier off. With {@code lox.jitStats} set, each
+ * compiled function, and each that could not be compiled and why, is
+ * reported on stderr.
+ */
+final class Jit {
+    // Not final so that tests can lower it.
+    static int threshold = Integer.getInteger("lox.jitThreshold", 1000);
+    static final boolean STATS = Boolean.getBoolean("lox.jitStats");
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Jit() {}
+
+    static boolean isHot(Function declaration) {
+        return threshold > 0 && declaration.hotness >= threshold;
+    }
+
+    /**
+     * Compiles the declaration and installs the result on it. If it cannot be
+     * compiled the declaration is left to the Interpreter for good.
+     */
+    static void compile(Function declaration) {
+        try {
+            byte[] classFile = new JvmCompiler("com/example/Jit$" + declaration.name.lexeme)
+                    .compileFunction(declaration);
+            Class<?> compiled = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+            declaration.compiled = (CompiledCode) compiled.getDeclaredConstructor().newInstance();
+            if (STATS) {
+                System.err.println("jit: compiled " + declaration.name.lexeme);
+            }
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            declaration.hotness = Integer.MIN_VALUE;
+            if (STATS) {
+                System.err.println("jit: could not compile " + declaration.name.lexeme + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,798 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.ClassWriter.Label;
+import com.example.Expr.Assign;
+import com.example.Expr.Binary;
+import com.example.Expr.Call;
+import com.example.Expr.Get;
+import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
+import com.example.Expr.Literal;
+import com.example.Expr.Logical;
+import com.example.Expr.Set;
+import com.example.Expr.Super;
+import com.example.Expr.This;
+import com.example.Expr.Unary;
+import com.example.Expr.Variable;
+import com.example.Stmt.Block;
+import com.example.Stmt.Class;
+import com.example.Stmt.Expression;
+import com.example.Stmt.For;
+import com.example.Stmt.Function;
+import com.example.Stmt.If;
+import com.example.Stmt.Print;
+import com.example.Stmt.Return;
+import com.example.Stmt.Var;
+import com.example.Stmt.While;
+import com.example.Token.TokenType;
+
+/**
+ * Lowers a resolved syntax tree to a JVM class. Every Stmt.Function becomes
+ * one method of the class, and the class implements CompiledCode so that
+ * LoxFunction can reach each of them by index.
+ *
+ * Compiled code keeps the Interpreter's runtime model: values are the same
+ * objects, and closures are the same flat arrays of cells. Locals live in JVM
+ * locals; the ones the Resolver found captured hold their Cell.
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "com/example/LoxRuntime";
+    private static final String CELL = "com/example/Cell";
+    private static final String FUNCTION = "com/example/LoxFunction";
+    private static final String CODE = "com/example/CompiledCode";
+    private static final String CACHES = "[Lcom/example/PropertyCache;";
+    private static final String BODY =
+        "(Lcom/example/Interpreter;[Lcom/example/Cell;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    // The JVM locals every compiled body starts with.
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int CLOSURE_LOCAL = 2;
+    private static final int ARGUMENTS_LOCAL = 3;
+    private static final int FIRST_REGISTER = 4;
+
+    // Top-level code is split into methods of about this many bytes so that
+    // large scripts stay under the JVM's limit on method size.
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Raised when a function or top-level statement does not fit in one JVM
+     * method. The line is where the function is declared, or the last line
+     * of the statement.
+     */
+    static class CompileError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int line;
+
+        CompileError(int line, String message) {
+            super(message);
+            this.line = line;
+        }
+    }
+
+    private static class Scope {
+        final int base;
+        int size = 0;
+
+        Scope(int base) {
+            this.base = base;
+        }
+    }
+
+    private static class Body {
+        final Function declaration;
+        final String methodName;
+
+        Body(Function declaration, String methodName) {
+            this.declaration = declaration;
+            this.methodName = methodName;
+        }
+    }
+
+    private final String className;
+    private final ClassWriter classWriter;
+    private final List<Body> bodies = new ArrayList<>();
+    // Property sites compiled so far; each gets an element of the class's
+    // static caches array.
+    private int caches = 0;
+
+    private ClassWriter.Method method;
+    private List<Scope> scopes;
+    private int nextRegister;
+    // Set while compiling the call a return statement returns, see TailCall.
+    private boolean tailPosition = false;
+    // The last source line passed to the runtime, for CompileError.
+    private int line = 0;
+
+    /**
+     * @param className internal name of the class to generate, such as
+     *                  {@code com/example/RulesScript}
+     */
+    JvmCompiler(String className) {
+        this.className = className;
+        this.classWriter = new ClassWriter(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL,
+                className, OBJECT, CODE);
+    }
+
+    /**
+     * Compiles a whole script. The top-level code becomes function 0 and the
+     * class gets a {@code main} method that runs it.
+     */
+    byte[] compileScript(List<Stmt> statements) {
+        bodies.add(new Body(null, "script"));
+        compileTopLevel(statements);
+
+        ClassWriter.Method main = classWriter.method(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC,
+                "main", "([Ljava/lang/String;)V");
+        main.type(ClassWriter.NEW, className);
+        main.op(ClassWriter.DUP);
+        main.invoke(ClassWriter.INVOKESPECIAL, className, "<init>", "()V");
+        main.invoke(ClassWriter.INVOKESTATIC, RUNTIME, "main", "(Lcom/example/CompiledCode;)V");
+        main.op(ClassWriter.RETURN);
+
+        return finish();
+    }
+
+    /**
+     * Compiles a single function, along with any functions nested inside it.
+     * The function itself is index 0.
+     */
+    byte[] compileFunction(Function declaration) {
+        bodies.add(new Body(declaration, "fn0_" + declaration.name.lexeme));
+        return finish();
+    }
+
+    private byte[] finish() {
+        // Compiling a body can discover nested functions, so this list grows
+        // while it is walked.
+        for (int i = 0; i < bodies.size(); i++) {
+            Body body = bodies.get(i);
+            if (body.declaration != null) {
+                compileBody(body);
+            }
+        }
+
+        classWriter.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL,
+                "caches", CACHES);
+        ClassWriter.Method clinit = classWriter.method(ClassWriter.ACC_STATIC, "<clinit>", "()V");
+        clinit.push(caches);
+        clinit.invoke(ClassWriter.INVOKESTATIC, RUNTIME, "caches", "(I)" + CACHES);
+        clinit.field(ClassWriter.PUTSTATIC, className, "caches", CACHES);
+        clinit.op(ClassWriter.RETURN);
+
+        ClassWriter.Method init = classWriter.method(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+        init.load(ClassWriter.ALOAD, 0);
+        init.invoke(ClassWriter.INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.op(ClassWriter.RETURN);
+
+        ClassWriter.Method invoke = classWriter.method(ClassWriter.ACC_PUBLIC, "invoke",
+                "(ILcom/example/Interpreter;[Lcom/example/Cell;[Ljava/lang/Object;)Ljava/lang/Object;");
+        Label fallThrough = new Label();
+        Label[] cases = new Label[bodies.size()];
+        for (int i = 0; i < cases.length; i++) cases[i] = new Label();
+        invoke.load(ClassWriter.ILOAD, 1);
+        invoke.tableSwitch(fallThrough, cases);
+        for (int i = 0; i < cases.length; i++) {
+            invoke.mark(cases[i]);
+            invoke.load(ClassWriter.ALOAD, 0);
+            invoke.load(ClassWriter.ALOAD, 2);
+            invoke.load(ClassWriter.ALOAD, 3);
+            invoke.load(ClassWriter.ALOAD, 4);
+            invoke.invoke(ClassWriter.INVOKEVIRTUAL, className, bodies.get(i).methodName, BODY);
+            invoke.op(ClassWriter.ARETURN);
+        }
+        invoke.mark(fallThrough);
+        invoke.op(ClassWriter.ACONST_NULL);
+        invoke.op(ClassWriter.ARETURN);
+
+        return classWriter.toByteArray();
+    }
+
+    private void compileTopLevel(List<Stmt> statements) {
+        List<String> chunks = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (method == null || method.size() > CHUNK_SIZE) {
+                if (method != null) endBody();
+                String name = "script" + chunks.size();
+                chunks.add(name);
+                beginBody(name);
+            }
+            compile(statement);
+            if (!method.fits()) {
+                throw new CompileError(line, "Statement too large to compile.");
+            }
+        }
+        if (method != null) endBody();
+
+        method = classWriter.method(ClassWriter.ACC_PUBLIC, "script", BODY);
+        for (String chunk : chunks) {
+            method.load(ClassWriter.ALOAD, 0);
+            method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+            method.load(ClassWriter.ALOAD, CLOSURE_LOCAL);
+            method.load(ClassWriter.ALOAD, ARGUMENTS_LOCAL);
+            method.invoke(ClassWriter.INVOKEVIRTUAL, className, chunk, BODY);
+            method.op(ClassWriter.POP);
+        }
+        method.op(ClassWriter.ACONST_NULL);
+        method.op(ClassWriter.ARETURN);
+        method = null;
+    }
+
+    private void compileBody(Body body) {
+        Function declaration = body.declaration;
+        beginBody(body.methodName);
+
+        beginScope();
+        for (int i = 0; i < declaration.params.size(); i++) {
+            method.load(ClassWriter.ALOAD, ARGUMENTS_LOCAL);
+            method.push(i);
+            method.op(ClassWriter.AALOAD);
+            defineLocal(isCaptured(declaration, i));
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        if (!method.fits()) {
+            throw new CompileError(declaration.name.line, "Function too large to compile.");
+        }
+
+        endBody();
+    }
+
+    private void beginBody(String name) {
+        method = classWriter.method(ClassWriter.ACC_PUBLIC, name, BODY);
+        scopes = new ArrayList<>();
+        nextRegister = FIRST_REGISTER;
+    }
+
+    private void endBody() {
+        method.op(ClassWriter.ACONST_NULL);
+        method.op(ClassWriter.ARETURN);
+        method = null;
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope(nextRegister));
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        nextRegister = scope.base;
+    }
+
+    private static boolean isCaptured(Function declaration, int param) {
+        for (int slot : declaration.capturedParams) {
+            if (slot == param) return true;
+        }
+        return false;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private int register(int depth, int slot) {
+        return scopes.get(scopes.size() - 1 - depth).base + slot;
+    }
+
+    /** Pushes the value of a local, unboxing it if it lives in a Cell. */
+    private void loadLocal(int depth, int slot, boolean cell) {
+        method.load(ClassWriter.ALOAD, register(depth, slot));
+        if (cell) {
+            method.type(ClassWriter.CHECKCAST, CELL);
+            method.field(ClassWriter.GETFIELD, CELL, "value", "Ljava/lang/Object;");
+        }
+    }
+
+    /**
+     * Stores the value on top of the stack and leaves it there.
+     */
+    private void assignLocal(int depth, int slot, boolean cell) {
+        method.op(ClassWriter.DUP);
+        if (cell) {
+            method.load(ClassWriter.ALOAD, register(depth, slot));
+            method.type(ClassWriter.CHECKCAST, CELL);
+            method.op(ClassWriter.SWAP);
+            method.field(ClassWriter.PUTFIELD, CELL, "value", "Ljava/lang/Object;");
+        } else {
+            method.store(ClassWriter.ASTORE, register(depth, slot));
+        }
+    }
+
+    private void loadUpvalue(int index) {
+        method.load(ClassWriter.ALOAD, CLOSURE_LOCAL);
+        method.push(index);
+        method.op(ClassWriter.AALOAD);
+        method.field(ClassWriter.GETFIELD, CELL, "value", "Ljava/lang/Object;");
+    }
+
+    /**
+     * Stores the value on top of the stack and leaves it there.
+     */
+    private void assignUpvalue(int index) {
+        method.op(ClassWriter.DUP);
+        method.load(ClassWriter.ALOAD, CLOSURE_LOCAL);
+        method.push(index);
+        method.op(ClassWriter.AALOAD);
+        method.op(ClassWriter.SWAP);
+        method.field(ClassWriter.PUTFIELD, CELL, "value", "Ljava/lang/Object;");
+    }
+
+    /**
+     * Declares a variable holding the value on top of the stack, in the same
+     * order the Resolver numbered the slots of the current scope.
+     */
+    private void define(Token name, boolean cell) {
+        if (scopes.isEmpty()) {
+            method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+            method.ldcString(name.lexeme);
+            method.invoke(ClassWriter.INVOKESTATIC, RUNTIME, "defineGlobal",
+                    "(Ljava/lang/Object;Lcom/example/Interpreter;Ljava/lang/String;)V");
+            return;
+        }
+        defineLocal(cell);
+    }
+
+    private void defineLocal(boolean cell) {
+        if (cell) {
+            newCell();
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        method.store(ClassWriter.ASTORE, scope.base + scope.size);
+        nextRegister = scope.base + scope.size + 1;
+        scope.size++;
+    }
+
+    /** Replaces the value on top of the stack with a Cell holding it. */
+    private void newCell() {
+        method.type(ClassWriter.NEW, CELL);
+        method.op(ClassWriter.DUP_X1);
+        method.op(ClassWriter.SWAP);
+        method.invoke(ClassWriter.INVOKESPECIAL, CELL, "<init>", "(Ljava/lang/Object;)V");
+    }
+
+    /** Pushes the line a runtime error at this token reports. */
+    private void line(Token token) {
+        line = token.line;
+        method.push(line);
+    }
+
+    /** Pushes the inline cache of a new property site. */
+    private void cache() {
+        method.field(ClassWriter.GETSTATIC, className, "caches", CACHES);
+        method.push(caches++);
+        method.op(ClassWriter.AALOAD);
+    }
+
+    private void runtime(String name, String descriptor) {
+        method.invoke(ClassWriter.INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    /**
+     * Pushes a new LoxFunction for the declaration, with the cells it
+     * captures. Its body is compiled later as a method of its own.
+     */
+    private void function(Function declaration, boolean isInitializer) {
+        int index = bodies.size();
+        bodies.add(new Body(declaration, "fn" + index + "_" + declaration.name.lexeme));
+
+        method.type(ClassWriter.NEW, FUNCTION);
+        method.op(ClassWriter.DUP);
+        method.ldcString(declaration.name.lexeme);
+        method.push(declaration.params.size());
+        method.load(ClassWriter.ALOAD, 0);
+        method.push(index);
+        captures(declaration);
+        method.push(isInitializer ? 1 : 0);
+        method.invoke(ClassWriter.INVOKESPECIAL, FUNCTION, "<init>",
+                "(Ljava/lang/String;ILcom/example/CompiledCode;I[Lcom/example/Cell;Z)V");
+    }
+
+    private void captures(Function declaration) {
+        Capture[] captures = declaration.captures;
+        if (captures.length == 0) {
+            method.field(ClassWriter.GETSTATIC, CELL, "NONE", "[Lcom/example/Cell;");
+            return;
+        }
+        method.push(captures.length);
+        method.type(ClassWriter.ANEWARRAY, CELL);
+        for (int i = 0; i < captures.length; i++) {
+            Capture capture = captures[i];
+            if (capture.kind == Capture.Kind.RECEIVER) continue;
+            method.op(ClassWriter.DUP);
+            method.push(i);
+            if (capture.kind == Capture.Kind.LOCAL) {
+                method.load(ClassWriter.ALOAD, register(capture.depth, capture.index));
+            } else {
+                method.load(ClassWriter.ALOAD, CLOSURE_LOCAL);
+                method.push(capture.index);
+                method.op(ClassWriter.AALOAD);
+            }
+            method.op(ClassWriter.AASTORE);
+        }
+    }
+
+    private void function(Function declaration) {
+        function(declaration, false);
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        if (stmt.scoped) beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        if (stmt.scoped) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        compile(stmt.expression);
+        method.op(ClassWriter.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            method.ldcString(stmt.superclass.name.lexeme);
+            line(stmt.superclass.name);
+            runtime("checkSuperclass", "(Ljava/lang/Object;Ljava/lang/String;I)Ljava/lang/Object;");
+        }
+        if (stmt.cell) {
+            // Methods that capture the class name need its cell first.
+            method.op(ClassWriter.ACONST_NULL);
+            define(stmt.name, true);
+        }
+        if (stmt.superclass != null) {
+            beginScope();
+            defineLocal(true);
+        }
+
+        method.ldcString(stmt.name.lexeme);
+        if (stmt.superclass != null) {
+            loadLocal(0, 0, true);
+        } else {
+            method.op(ClassWriter.ACONST_NULL);
+        }
+        method.push(stmt.methods.size());
+        method.type(ClassWriter.ANEWARRAY, FUNCTION);
+        for (int i = 0; i < stmt.methods.size(); i++) {
+            Function declaration = stmt.methods.get(i);
+            method.op(ClassWriter.DUP);
+            method.push(i);
+            function(declaration, declaration.name.lexeme.equals("init"));
+            method.op(ClassWriter.AASTORE);
+        }
+        runtime("makeClass", "(Ljava/lang/String;Ljava/lang/Object;[Lcom/example/LoxFunction;)Ljava/lang/Object;");
+
+        if (stmt.superclass != null) {
+            endScope();
+        }
+        if (stmt.cell) {
+            assignLocal(0, scopes.get(scopes.size() - 1).size - 1, true);
+            method.op(ClassWriter.POP);
+        } else {
+            define(stmt.name, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        if (stmt.cell) {
+            // The function may capture itself, so its cell comes first.
+            method.op(ClassWriter.ACONST_NULL);
+            define(stmt.name, true);
+            function(stmt);
+            assignLocal(0, scopes.get(scopes.size() - 1).size - 1, true);
+            method.op(ClassWriter.POP);
+        } else {
+            function(stmt);
+            define(stmt.name, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        compile(stmt.expression);
+        runtime("print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value != null) {
+            tailPosition = stmt.tailCall;
+            compile(stmt.value);
+        } else {
+            method.op(ClassWriter.ACONST_NULL);
+        }
+        method.op(ClassWriter.ARETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            method.op(ClassWriter.ACONST_NULL);
+        }
+        define(stmt.name, stmt.cell);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        Label start = new Label();
+        Label end = new Label();
+        method.mark(start);
+        condition(stmt.condition);
+        method.jump(ClassWriter.IFEQ, end);
+        compile(stmt.body);
+        method.jump(ClassWriter.GOTO, start);
+        method.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        if (stmt.scoped) beginScope();
+        if (stmt.initializer != null) compile(stmt.initializer);
+        Label start = new Label();
+        Label end = new Label();
+        method.mark(start);
+        condition(stmt.condition);
+        method.jump(ClassWriter.IFEQ, end);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            method.op(ClassWriter.POP);
+        }
+        method.jump(ClassWriter.GOTO, start);
+        method.mark(end);
+        if (stmt.scoped) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        Label elseBranch = new Label();
+        condition(stmt.condition);
+        method.jump(ClassWriter.IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            Label end = new Label();
+            method.jump(ClassWriter.GOTO, end);
+            method.mark(elseBranch);
+            compile(stmt.elseBranch);
+            method.mark(end);
+        } else {
+            method.mark(elseBranch);
+        }
+        return null;
+    }
+
+    private void condition(Expr expr) {
+        compile(expr);
+        runtime("isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line(expr.operator);
+        runtime(binaryOperation(expr.operator.type), "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    private static String binaryOperation(TokenType type) {
+        switch (type) {
+            case MINUS: return "subtract";
+            case PLUS: return "add";
+            case SLASH: return "divide";
+            case STAR: return "multiply";
+            case GREATER: return "greater";
+            case GREATER_EQUAL: return "greaterEqual";
+            case LESS: return "less";
+            case LESS_EQUAL: return "lessEqual";
+            case BANG_EQUAL: return "notEqual";
+            case EQUAL_EQUAL: return "equal";
+            default:
+                throw new IllegalArgumentException("Not a binary operator: " + type);
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        boolean tail = tailPosition;
+        tailPosition = false;
+        method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+        compile(expr.callee);
+        int count = expr.arguments.size();
+        if (count <= 4 && !tail) {
+            // LoxRuntime.call0 to call4 pass the arguments without an array.
+            StringBuilder descriptor = new StringBuilder("(Lcom/example/Interpreter;Ljava/lang/Object;");
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+                descriptor.append("Ljava/lang/Object;");
+            }
+            line(expr.paren);
+            runtime("call" + count, descriptor.append("I)Ljava/lang/Object;").toString());
+            return null;
+        }
+        method.push(expr.arguments.size());
+        method.type(ClassWriter.ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            method.op(ClassWriter.DUP);
+            method.push(i);
+            compile(expr.arguments.get(i));
+            method.op(ClassWriter.AASTORE);
+        }
+        line(expr.paren);
+        runtime(tail ? "tailCall" : "call",
+                "(Lcom/example/Interpreter;Ljava/lang/Object;[Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    /** Compiled code makes the call and leaves inlining to the JVM. */
+    @Override
+    public Void visitInlineExpr(Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Void visitInvokeExpr(Invoke expr) {
+        boolean tail = tailPosition;
+        tailPosition = false;
+        method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+        compile(expr.object);
+        method.op(ClassWriter.DUP);
+        cache();
+        method.ldcString(expr.name.lexeme);
+        line(expr.name);
+        runtime("invokeTarget", "(Ljava/lang/Object;Lcom/example/PropertyCache;Ljava/lang/String;I)Ljava/lang/Object;");
+        method.push(expr.arguments.size());
+        method.type(ClassWriter.ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            method.op(ClassWriter.DUP);
+            method.push(i);
+            compile(expr.arguments.get(i));
+            method.op(ClassWriter.AASTORE);
+        }
+        line(expr.paren);
+        runtime(tail ? "tailInvoke" : "invoke",
+                "(Lcom/example/Interpreter;Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        compile(expr.object);
+        cache();
+        method.ldcString(expr.name.lexeme);
+        line(expr.name);
+        runtime("getProperty", "(Ljava/lang/Object;Lcom/example/PropertyCache;Ljava/lang/String;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        cache();
+        method.ldcString(expr.name.lexeme);
+        line(expr.name);
+        runtime("setProperty",
+                "(Ljava/lang/Object;Ljava/lang/Object;Lcom/example/PropertyCache;Ljava/lang/String;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) {
+            method.op(ClassWriter.ACONST_NULL);
+        } else if (expr.value instanceof Boolean) {
+            method.field(ClassWriter.GETSTATIC, "java/lang/Boolean",
+                    (Boolean) expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else if (expr.value instanceof Double) {
+            method.ldcDouble((Double) expr.value);
+            method.invoke(ClassWriter.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else {
+            method.ldcString((String) expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        Label end = new Label();
+        compile(expr.left);
+        method.op(ClassWriter.DUP);
+        runtime("isTruthy", "(Ljava/lang/Object;)Z");
+        method.jump(expr.operator.type == TokenType.OR ? ClassWriter.IFNE : ClassWriter.IFEQ, end);
+        method.op(ClassWriter.POP);
+        compile(expr.right);
+        method.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            runtime("not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        } else {
+            line(expr.operator);
+            runtime("negate", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        loadUpvalue(expr.upvalue);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        loadUpvalue(expr.upvalue);
+        loadUpvalue(expr.receiver);
+        method.ldcString(expr.method.lexeme);
+        line(expr.method);
+        runtime("superMethod", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/String;I)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        if (expr.upvalue >= 0) {
+            loadUpvalue(expr.upvalue);
+        } else if (expr.depth < 0) {
+            method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+            method.ldcString(expr.name.lexeme);
+            line(expr.name);
+            runtime("getGlobal", "(Lcom/example/Interpreter;Ljava/lang/String;I)Ljava/lang/Object;");
+        } else {
+            loadLocal(expr.depth, expr.slot, expr.cell);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value);
+        if (expr.upvalue >= 0) {
+            assignUpvalue(expr.upvalue);
+        } else if (expr.depth < 0) {
+            method.load(ClassWriter.ALOAD, INTERPRETER_LOCAL);
+            method.ldcString(expr.name.lexeme);
+            line(expr.name);
+            runtime("assignGlobal", "(Ljava/lang/Object;Lcom/example/Interpreter;Ljava/lang/String;I)Ljava/lang/Object;");
+        } else {
+            assignLocal(expr.depth, expr.slot, expr.cell);
+        }
+        return null;
+    }
+}
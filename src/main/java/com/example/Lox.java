@@ -3,16 +3,21 @@ package com.example;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.example.Token.TokenType;
+import com.example.Vm.ObjFunction;
 
 public class Lox 
 {
     private static Interpreter interpreter = new Interpreter();
+    private static Vm vm = new Vm();
+    private static boolean useVm = false;
+    private static boolean stream = false;
 
     /**
      * Enables additional debugging output when set to {@code true}.
@@ -24,16 +29,40 @@ public class Lox
 
     public static void main( String[] args ) throws IOException
     {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String outputDir = null;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            if (args[first].equals("--vm")) {
+                useVm = true;
+                first++;
+            } else if (args[first].equals("--stream")) {
+                stream = true;
+                first++;
+            } else if (args[first].equals("--compile") && first + 1 < args.length) {
+                outputDir = args[first + 1];
+                first += 2;
+            } else {
+                usage();
+            }
+        }
+
+        int scripts = args.length - first;
+        if (scripts > 1 || (outputDir != null && scripts == 0)) {
+            usage();
+        } else if (outputDir != null) {
+            compileFile(args[first], outputDir);
+        } else if (scripts == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--stream] [--compile <output_dir>] [script]");
+        System.exit(64);
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader in = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(in);
@@ -48,8 +77,11 @@ public class Lox
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] program = Files.readAllBytes(Path.of(path));
-        run(new String(program, Charset.defaultCharset()));
+        if (stream) {
+            runStreaming(MappedSource.map(Path.of(path)));
+        } else {
+            run(MappedSource.map(Path.of(path)));
+        }
         if (hadError) {
             System.exit(65);
         }
@@ -58,9 +90,144 @@ public class Lox
         }
     }
 
-    private static void run(String source) {
+    /**
+     * Compiles a script ahead of time into a class with a {@code main} method.
+     * The class is written to {@code com/example} under the output directory
+     * and needs the Lox classes on its classpath to run.
+     */
+    private static void compileFile(String path, String outputDir) throws IOException {
+        List<Stmt> statements = analyze(MappedSource.map(Path.of(path)));
+        if (hadError) {
+            System.exit(65);
+        }
+
+        String className = scriptClassName(Path.of(path));
+        byte[] classFile;
+        try {
+            classFile = new JvmCompiler("com/example/" + className).compileScript(statements);
+        } catch (JvmCompiler.CompileError error) {
+            error(error.line, error.getMessage());
+            System.exit(65);
+            return;
+        }
+        Path output = Path.of(outputDir, "com", "example", className + ".class");
+        Files.createDirectories(output.getParent());
+        Files.write(output, classFile);
+    }
+
+    private static String scriptClassName(Path path) {
+        String stem = path.getFileName().toString().replaceFirst("\\.lox$", "");
+        StringBuilder name = new StringBuilder();
+        for (char c : stem.toCharArray()) {
+            name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            name.insert(0, '_');
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name + "Script";
+    }
+
+    private static void run(CharSequence source) {
+        List<Stmt> statements = analyze(source);
+
+        if (hadError) return;
+        execute(statements);
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (useVm) {
+            ObjFunction script = new BytecodeCompiler().compile(statements);
+            if (hadError) return;
+            vm.interpret(script);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    /**
+     * Runs a script one top-level declaration at a time: each is scanned,
+     * parsed, resolved, optimized and run before the next is read, so
+     * output starts before a large script has been read to the end.
+     *
+     * Errors are reported as for run, but only once the front end reaches
+     * them, so the declarations before a syntax error have already run.
+     * Nothing runs after the first error; parsing goes on to report any
+     * further syntax errors, except after a runtime error, which ends the
+     * script.
+     */
+    private static void runStreaming(CharSequence source) {
+        Parser parser = new Parser(new Scanner(source));
+        Resolver resolver = new Resolver();
+        Optimizer optimizer = new Optimizer();
+        while (parser.hasNext() && !hadRuntimeError) {
+            Stmt declaration = parser.next();
+            if (hadError) continue;
+
+            List<Stmt> statements = new ArrayList<>(1);
+            statements.add(declaration);
+            resolver.resolve(statements);
+            if (hadError) continue;
+
+            execute(optimizer.optimize(statements));
+        }
+        if (Optimizer.STATS) {
+            System.err.println(optimizer.summary());
+        }
+    }
+
+    /**
+     * Runs a script on a fresh interpreter or VM and returns the exit status
+     * {@code runFile} would have used, for tests that check both engines.
+     */
+    static int runScript(String source, boolean onVm) {
+        return runScript(source, onVm, false);
+    }
+
+    /** Like runScript, but streaming the script as {@code --stream} does. */
+    static int runScript(String source, boolean onVm, boolean streaming) {
+        hadError = false;
+        hadRuntimeError = false;
+        useVm = onVm;
+        interpreter = new Interpreter();
+        vm = new Vm();
+        if (streaming) {
+            runStreaming(source);
+        } else {
+            run(source);
+        }
+        if (hadError) return 65;
+        if (hadRuntimeError) return 70;
+        return 0;
+    }
+
+    /**
+     * Like runScript, but compiles the script to a class as {@code --compile}
+     * does and runs that, for tests that check the ahead-of-time compiler.
+     */
+    static int runCompiled(String source) {
+        hadError = false;
+        hadRuntimeError = false;
+        List<Stmt> statements = analyze(source);
+        if (hadError) return 65;
+
+        try {
+            byte[] classFile = new JvmCompiler("com/example/CompiledScript").compileScript(statements);
+            Class<?> compiled = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+            LoxRuntime.run((CompiledCode) compiled.getDeclaredConstructor().newInstance());
+        } catch (JvmCompiler.CompileError error) {
+            error(error.line, error.getMessage());
+            return 65;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Compiled script did not load.", e);
+        }
+        if (hadRuntimeError) return 70;
+        return 0;
+    }
+
+    private static List<Stmt> analyze(CharSequence source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
 
         if (DEBUG) {
             System.out.println(tokens);
@@ -68,14 +235,19 @@ public class Lox
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
 
-        if (hadError) return;
+        if (hadError) return statements;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
-        if (hadError) return;
- 
-        interpreter.interpret(statements);
+        if (hadError) return statements;
+
+        Optimizer optimizer = new Optimizer();
+        statements = optimizer.optimize(statements);
+        if (Optimizer.STATS) {
+            System.err.println(optimizer.summary());
+        }
+        return statements;
     }
 
     static void error(Token token, String message) {
@@ -1,9 +1,35 @@
 package com.example;
 
-import java.util.List;
-
+/**
+ * Something a Lox call expression can call.
+ *
+ * Callers that know how many arguments they have use the fixed-arity entry
+ * points, which avoid collecting the arguments first; the defaults route them
+ * to {@link #call(Interpreter, Object[])}. The array passed to that method
+ * belongs to the callee from then on.
+ */
 public interface LoxCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
-}
 
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] { a });
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] { a, b });
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] { a, b, c });
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, new Object[] { a, b, c, d });
+    }
+}
@@ -1,17 +1,28 @@
 package com.example;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
+    // Inherited methods are copied down when the class is created, so a
+    // lookup never walks the superclass chain.
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    // Instances start out with this shape and gain fields from it.
+    final Shape rootShape = new Shape();
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        if (superclass == null) {
+            this.methods = methods;
+        } else {
+            this.methods = new HashMap<>(superclass.methods);
+            this.methods.putAll(methods);
+        }
+        this.initializer = this.methods.get("init");
     }
 
     public String toString() {
@@ -20,29 +31,70 @@ class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (initializer == null) return new LoxInstance(this);
+        return construct(interpreter, initializer.frame());
+    }
+
+    // The arity was checked before any of these, so there is an initializer.
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Object[] frame = initializer.frame();
+        frame[0] = a;
+        return construct(interpreter, frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Object[] frame = initializer.frame();
+        frame[0] = a;
+        frame[1] = b;
+        return construct(interpreter, frame);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Object[] frame = initializer.frame();
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        return construct(interpreter, frame);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        Object[] frame = initializer.frame();
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        frame[3] = d;
+        return construct(interpreter, frame);
+    }
+
+    /** Creates an instance and runs the initializer on a filled-in frame. */
+    private LoxInstance construct(Interpreter interpreter, Object[] frame) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke(interpreter, instance, frame);
+        return instance;
+    }
+
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+        return methods.get(name);
     }
 }
 
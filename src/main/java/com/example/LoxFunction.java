@@ -1,50 +1,184 @@
 package com.example;
 
-import java.util.List;
+import java.util.Arrays;
 
 import com.example.Stmt.Function;
 
 class LoxFunction implements LoxCallable {
 
+    final String name;
+    private final int arity;
     private final Function declaration;
-    private final Environment closure;
+    private final CompiledCode code;
+    private final int index;
+    // The cells this closure captured; a method's first cell is its receiver.
+    private final Cell[] upvalues;
     private final boolean isInitializer;
+    // Slots a call needs for its parameters and the locals declared directly
+    // in the body.
+    private final int frameSize;
 
-    LoxFunction(Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Function declaration, Cell[] upvalues, boolean isInitializer) {
+        this(declaration.name.lexeme, declaration.params.size(), declaration, null, 0, upvalues, isInitializer);
+    }
+
+    /**
+     * Creates a function whose body was compiled by JvmCompiler and is
+     * reached through {@code code} at {@code index}.
+     */
+    LoxFunction(String name, int arity, CompiledCode code, int index, Cell[] upvalues, boolean isInitializer) {
+        this(name, arity, null, code, index, upvalues, isInitializer);
+    }
+
+    private LoxFunction(String name, int arity, Function declaration, CompiledCode code, int index,
+            Cell[] upvalues, boolean isInitializer) {
+        this.name = name;
+        this.arity = arity;
         this.declaration = declaration;
-        this.closure = closure;
+        this.code = code;
+        this.index = index;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer;
+        this.frameSize = declaration == null ? arity : Math.max(arity, declaration.frameSize);
     }
     
     @Override
     public int arity() {
-        return declaration.params.size();
+        return arity;
+    }
+
+    /** Whether this is a closure over the given declaration. */
+    boolean declaredBy(Function declaration) {
+        return this.declaration == declaration;
     }
 
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + name + ">";
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, upvalues, frame(arguments));
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return call(interpreter, upvalues, frame());
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Object[] frame = frame();
+        frame[0] = a;
+        return call(interpreter, upvalues, frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Object[] frame = frame();
+        frame[0] = a;
+        frame[1] = b;
+        return call(interpreter, upvalues, frame);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Object[] frame = frame();
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        return call(interpreter, upvalues, frame);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        Object[] frame = frame();
+        frame[0] = a;
+        frame[1] = b;
+        frame[2] = c;
+        frame[3] = d;
+        return call(interpreter, upvalues, frame);
+    }
+
+    /**
+     * Calls this method with {@code receiver} as 'this', without creating a
+     * bound method first. Takes over the arguments array like call does.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return call(interpreter, bound(receiver), frame(arguments));
+    }
+
+    /** Returns this call unmade, for a body to return from tail position. */
+    TailCall tailCall(Object[] arguments) {
+        return new TailCall(this, upvalues, frame(arguments));
+    }
+
+    /** Returns this method call unmade, like tailCall. */
+    TailCall tailInvoke(LoxInstance receiver, Object[] arguments) {
+        return new TailCall(this, bound(receiver), frame(arguments));
+    }
+
+    /** Returns this method's cells with the receiver cell filled in. */
+    private Cell[] bound(LoxInstance receiver) {
+        Cell[] cells = upvalues.clone();
+        cells[0] = new Cell(receiver);
+        return cells;
+    }
+
+    /**
+     * Returns an empty frame for a call. Callers that can evaluate the
+     * arguments straight into its first slots skip an intermediate array.
+     */
+    Object[] frame() {
+        return new Object[frameSize];
+    }
+
+    private Object[] frame(Object[] arguments) {
+        return arguments.length >= frameSize ? arguments : Arrays.copyOf(arguments, frameSize);
+    }
+
+    /**
+     * Runs the call, then any tail calls its body returns instead of making,
+     * one after another without nesting.
+     */
+    private Object call(Interpreter interpreter, Cell[] upvalues, Object[] frame) {
+        Object result = execute(interpreter, upvalues, frame);
+        while (result instanceof TailCall) {
+            TailCall next = (TailCall) result;
+            result = next.function.execute(interpreter, next.upvalues, next.frame);
+        }
+        return result;
+    }
+
+    private Object execute(Interpreter interpreter, Cell[] upvalues, Object[] frame) {
+        if (code != null) {
+            Object result = code.invoke(index, interpreter, upvalues, frame);
+            if (isInitializer) return upvalues[0].value;
+            return result;
+        }
+
+        if (declaration.compiled == null) {
+            declaration.hotness++;
+            if (Jit.isHot(declaration)) Jit.compile(declaration);
         }
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+        if (declaration.compiled != null) {
+            Object result = declaration.compiled.invoke(0, interpreter, upvalues, frame);
+            if (isInitializer) return upvalues[0].value;
+            return result;
+        }
+
+        for (int slot : declaration.capturedParams) {
+            frame[slot] = new Cell(frame[slot]);
         }
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+        Environment environment = new Environment(null, frame, arity);
+        Completion completion = interpreter.executeFunction(declaration, upvalues, environment);
+        Object result = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
+        if (isInitializer) return upvalues[0].value;
+        return result;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(name, arity, declaration, code, index, bound(instance), isInitializer);
     }
     
 }
@@ -1,14 +1,19 @@
 package com.example;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+
+import com.example.Token.TokenType;
 
 public class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
     }
     
     @Override
@@ -16,19 +21,89 @@ public class LoxInstance {
         return klass.name + " instance";
     }
 
-    Object get(Token name) {
-        if (fields.containsValue(name.lexeme)) {
-            return fields.get(name.lexeme);
+    /**
+     * Gets a property through the inline cache of the site reading it. The
+     * line is only used to report an undefined property.
+     */
+    Object get(String name, int line, PropertyCache cache) {
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            int slot = cache.slot(entry);
+            return slot >= 0 ? fields[slot] : cache.method(entry).bind(this);
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+        int slot = shape.slot(name);
+        if (slot >= 0) {
+            cache.add(shape, slot, null);
+            return fields[slot];
+        }
+        LoxFunction method = method(name, line);
+        cache.add(shape, -1, method);
+        return method.bind(this);
+    }
+
+    /**
+     * Finds the method a call through this property would run, through the
+     * inline cache of the site calling it, or returns null if the property
+     * is a field.
+     */
+    LoxFunction findMethod(String name, int line, PropertyCache cache) {
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            return cache.slot(entry) >= 0 ? null : cache.method(entry);
+        }
 
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        int slot = shape.slot(name);
+        if (slot >= 0) {
+            cache.add(shape, slot, null);
+            return null;
+        }
+        LoxFunction method = method(name, line);
+        cache.add(shape, -1, method);
+        return method;
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
-    } 
-}
+    private LoxFunction method(String name, int line) {
+        LoxFunction method = klass.findMethod(name);
+        if (method != null) return method;
+
+        throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line),
+                "Undefined property '" + name + "'.");
+    }
 
+    /** Sets a field through the inline cache of the site writing it. */
+    void set(String name, Object value, PropertyCache cache) {
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            Shape next = cache.transition(entry);
+            if (next != shape) {
+                shape = next;
+                ensureCapacity(next.size);
+            }
+            fields[cache.slot(entry)] = value;
+            return;
+        }
+
+        Shape before = shape;
+        int slot = slotFor(name);
+        fields[slot] = value;
+        cache.add(before, slot, shape);
+    }
+
+    /** Returns the slot for a field, adding the field if there is none. */
+    private int slotFor(String name) {
+        int slot = shape.slot(name);
+        if (slot < 0) {
+            slot = shape.size;
+            shape = shape.with(name);
+            ensureCapacity(shape.size);
+        }
+        return slot;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.Token.TokenType;
+
+/**
+ * Support routines for code generated by JvmCompiler. Compiled code uses the
+ * same values as the Interpreter (Double, String, Boolean, LoxFunction,
+ * LoxClass, LoxInstance and Cell), so compiled and interpreted code
+ * can call into each other freely.
+ *
+ * Source positions only travel as line numbers; a Token is built when an
+ * error actually has to be reported.
+ */
+final class LoxRuntime {
+    private LoxRuntime() {}
+
+    /**
+     * Runs the top-level code of an ahead-of-time compiled script.
+     */
+    static void main(CompiledCode script) {
+        if (!run(script)) {
+            System.exit(70);
+        }
+    }
+
+    /**
+     * Runs the top-level code of a compiled script on a fresh interpreter.
+     * Returns false if it stopped with a runtime error, which has then been
+     * reported.
+     */
+    static boolean run(CompiledCode script) {
+        Interpreter interpreter = new Interpreter();
+        try {
+            script.invoke(0, interpreter, Cell.NONE, new Object[0]);
+            return true;
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            return false;
+        }
+    }
+
+    static Object getGlobal(Interpreter interpreter, String name, int line) {
+        Object value = interpreter.globals.lookup(name);
+        if (value == Environment.UNDEFINED) {
+            return interpreter.globals.get(token(TokenType.IDENTIFIER, name, line));
+        }
+        return value;
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, String name, int line) {
+        interpreter.globals.assign(token(TokenType.IDENTIFIER, name, line), value);
+        return value;
+    }
+
+    static void defineGlobal(Object value, Interpreter interpreter, String name) {
+        interpreter.globals.define(name, value);
+    }
+
+    static Object add(Object left, Object right, int line) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String)left + (String)right;
+        }
+        throw new RuntimeError(token(TokenType.PLUS, "+", line), "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.MINUS, "-", left, right, line);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.STAR, "*", left, right, line);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.SLASH, "/", left, right, line);
+        return (double)left / (double)right;
+    }
+
+    static Object greater(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.GREATER, ">", left, right, line);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.GREATER_EQUAL, ">=", left, right, line);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.LESS, "<", left, right, line);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Object left, Object right, int line) {
+        checkNumberOperands(TokenType.LESS_EQUAL, "<=", left, right, line);
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right, int line) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right, int line) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object operand, int line) {
+        if (!(operand instanceof Double)) {
+            throw new RuntimeError(token(TokenType.MINUS, "-", line), "Operand must be a number");
+        }
+        return -(double)operand;
+    }
+
+    static Object not(Object operand) {
+        return !Interpreter.isTruthy(operand);
+    }
+
+    static boolean isTruthy(Object object) {
+        return Interpreter.isTruthy(object);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments, int line) {
+        return callable(callee, arguments.length, line).call(interpreter, arguments);
+    }
+
+    /**
+     * Like call, but for a return in tail position: a Lox function comes back
+     * as a TailCall for the caller's LoxFunction to make.
+     */
+    static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, int line) {
+        LoxCallable function = callable(callee, arguments.length, line);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).tailCall(arguments);
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    static Object call0(Interpreter interpreter, Object callee, int line) {
+        return callable(callee, 0, line).call0(interpreter);
+    }
+
+    static Object call1(Interpreter interpreter, Object callee, Object a, int line) {
+        return callable(callee, 1, line).call1(interpreter, a);
+    }
+
+    static Object call2(Interpreter interpreter, Object callee, Object a, Object b, int line) {
+        return callable(callee, 2, line).call2(interpreter, a, b);
+    }
+
+    static Object call3(Interpreter interpreter, Object callee, Object a, Object b, Object c, int line) {
+        return callable(callee, 3, line).call3(interpreter, a, b, c);
+    }
+
+    static Object call4(Interpreter interpreter, Object callee, Object a, Object b, Object c, Object d, int line) {
+        return callable(callee, 4, line).call4(interpreter, a, b, c, d);
+    }
+
+    private static LoxCallable callable(Object callee, int count, int line) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", line), "Can only call functions and classes");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        checkArity(function, count, line);
+        return function;
+    }
+
+    private static void checkArity(LoxCallable function, int count, int line) {
+        if (count != function.arity()) {
+            throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", line),
+                    "Expected " + function.arity() + " arguments but got " + count);
+        }
+    }
+
+    /**
+     * Looks up what obj.name(...) calls, before its arguments are evaluated.
+     * Returns the unbound method, or the field holding the callee.
+     */
+    static Object invokeTarget(Object object, PropertyCache cache, String name, int line) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(token(TokenType.IDENTIFIER, name, line), "Only instances have properties");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        LoxFunction method = instance.findMethod(name, line, cache);
+        if (method == null) return new Field(instance.get(name, line, cache));
+        return method;
+    }
+
+    static Object invoke(Interpreter interpreter, Object receiver, Object target, Object[] arguments, int line) {
+        if (target instanceof Field) {
+            return call(interpreter, ((Field) target).value, arguments, line);
+        }
+        LoxFunction method = (LoxFunction) target;
+        checkArity(method, arguments.length, line);
+        return method.invoke(interpreter, (LoxInstance) receiver, arguments);
+    }
+
+    static Object tailInvoke(Interpreter interpreter, Object receiver, Object target, Object[] arguments, int line) {
+        if (target instanceof Field) {
+            return tailCall(interpreter, ((Field) target).value, arguments, line);
+        }
+        LoxFunction method = (LoxFunction) target;
+        checkArity(method, arguments.length, line);
+        return method.tailInvoke((LoxInstance) receiver, arguments);
+    }
+
+    /** A field called like a method, kept apart from a method target. */
+    private static final class Field {
+        final Object value;
+
+        Field(Object value) {
+            this.value = value;
+        }
+    }
+
+    static Object getProperty(Object object, PropertyCache cache, String name, int line) {
+        if (object instanceof LoxInstance) {
+            return ((LoxInstance) object).get(name, line, cache);
+        }
+        throw new RuntimeError(token(TokenType.IDENTIFIER, name, line), "Only instances have properties");
+    }
+
+    static Object setProperty(Object object, Object value, PropertyCache cache, String name, int line) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(token(TokenType.IDENTIFIER, name, line), "Only instances have fields.");
+        }
+        ((LoxInstance) object).set(name, value, cache);
+        return value;
+    }
+
+    /**
+     * Creates the inline caches of a compiled class, one for each property
+     * get, set and invoke site in it.
+     */
+    static PropertyCache[] caches(int count) {
+        PropertyCache[] caches = new PropertyCache[count];
+        for (int i = 0; i < count; i++) {
+            caches[i] = new PropertyCache();
+        }
+        return caches;
+    }
+
+    static Object superMethod(Object superclass, Object instance, String name, int line) {
+        LoxFunction method = ((LoxClass) superclass).findMethod(name);
+        if (method == null) {
+            throw new RuntimeError(token(TokenType.IDENTIFIER, name, line), "Undefined property '" + name + "'.");
+        }
+        return method.bind((LoxInstance) instance);
+    }
+
+    static Object checkSuperclass(Object superclass, String name, int line) {
+        if (!(superclass instanceof LoxClass)) {
+            throw new RuntimeError(token(TokenType.IDENTIFIER, name, line), "Superclass must be a class.");
+        }
+        return superclass;
+    }
+
+    static Object makeClass(String name, Object superclass, LoxFunction[] methods) {
+        Map<String, LoxFunction> table = new HashMap<>();
+        for (LoxFunction method : methods) {
+            table.put(method.name, method);
+        }
+        return new LoxClass(name, (LoxClass) superclass, table);
+    }
+
+    private static void checkNumberOperands(TokenType type, String lexeme, Object left, Object right, int line) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(token(type, lexeme, line), "Operand must be a number");
+    }
+
+    private static Token token(TokenType type, String lexeme, int line) {
+        return new Token(type, lexeme, null, line);
+    }
+}
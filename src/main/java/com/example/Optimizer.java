@@ -0,0 +1,765 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import com.example.Expr.Assign;
+import com.example.Expr.Binary;
+import com.example.Expr.Call;
+import com.example.Expr.Get;
+import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
+import com.example.Expr.Literal;
+import com.example.Expr.Logical;
+import com.example.Expr.Set;
+import com.example.Expr.Super;
+import com.example.Expr.This;
+import com.example.Expr.Unary;
+import com.example.Expr.Variable;
+import com.example.Stmt.Block;
+import com.example.Stmt.Class;
+import com.example.Stmt.Expression;
+import com.example.Stmt.For;
+import com.example.Stmt.Function;
+import com.example.Stmt.If;
+import com.example.Stmt.Print;
+import com.example.Stmt.Return;
+import com.example.Stmt.Var;
+import com.example.Stmt.While;
+import com.example.Token.TokenType;
+
+/**
+ * Rewrites a resolved program before it runs. The passes are:
+ *
+ * FOLD evaluates unary, binary and logical expressions whose operands are
+ * literals, as long as the operation cannot fail at run time.
+ *
+ * PROPAGATE replaces reads of a local that is never assigned after its
+ * literal initializer with the literal.
+ *
+ * ELIMINATE drops branches and loops whose condition is a literal that rules
+ * them out, statements after a return, and locals and assignments nothing
+ * reads.
+ *
+ * INLINE replaces calls to a small top-level function, one that only returns
+ * an expression of its parameters with no calls in it, with an Inline node.
+ * The Interpreter evaluates that expression in place of the call for as long
+ * as the global still holds the function.
+ *
+ * Globals are left alone, since any function or later line of the REPL may
+ * assign them. Nodes that do not change are reused, and a changed program is
+ * resolved again. The passes are chosen with the {@code lox.optimize} system
+ * property, a comma-separated list such as {@code fold,propagate} that
+ * defaults to all four ({@code none} turns the optimizer off). Setting
+ * {@code lox.optimizeStats} prints what was removed to standard error.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    enum Pass {
+        FOLD, PROPAGATE, ELIMINATE, INLINE
+    }
+
+    static final java.util.Set<Pass> PASSES = passes(System.getProperty("lox.optimize", "fold,propagate,eliminate,inline"));
+    static final boolean STATS = Boolean.getBoolean("lox.optimizeStats");
+
+    private static final Object NOT_CONSTANT = new Object();
+    // The most nodes a returned expression may have for its function to be
+    // inlined.
+    private static final int MAX_INLINE_SIZE = 16;
+
+    /** What the program does with one local variable. */
+    private static class Binding {
+        int reads = 0;
+        int writes = 0;
+        // Read somewhere that has to stay a variable, such as a superclass.
+        boolean pinned = false;
+        boolean constant = false;
+        Object value;
+    }
+
+    private final java.util.Set<Pass> passes;
+    private final Map<Stmt, Binding> declarations = new IdentityHashMap<>();
+    private final Map<Expr, Binding> references = new IdentityHashMap<>();
+    // Top-level names seen so far, how often each was declared, and the
+    // functions among them as they ended up after optimizing. These carry
+    // over from one call of optimize to the next.
+    private final Map<String, Integer> topLevel = new HashMap<>();
+    private final Map<String, Function> functions = new HashMap<>();
+    private final Map<String, Function> inlineable = new HashMap<>();
+    private final List<Inline> inlines = new ArrayList<>();
+
+    private int folded = 0;
+    private int propagated = 0;
+    private int branches = 0;
+    private int unreachable = 0;
+    private int deadStores = 0;
+    private int inlined = 0;
+
+    Optimizer() {
+        this(PASSES);
+    }
+
+    Optimizer(java.util.Set<Pass> passes) {
+        this.passes = passes;
+    }
+
+    private static java.util.Set<Pass> passes(String names) {
+        java.util.Set<Pass> passes = EnumSet.noneOf(Pass.class);
+        for (String name : names.split(",")) {
+            for (Pass pass : Pass.values()) {
+                if (pass.name().equalsIgnoreCase(name.trim())) passes.add(pass);
+            }
+        }
+        return passes;
+    }
+
+    /**
+     * Returns the optimized program, resolved and ready to run. The
+     * statements passed in must have been resolved without errors.
+     *
+     * A program may also be passed in pieces of top-level statements, one
+     * call each, as long as the pieces run in the same order. Later pieces
+     * can then inline functions declared in earlier ones.
+     */
+    List<Stmt> optimize(List<Stmt> statements) {
+        if (passes.isEmpty()) return statements;
+
+        declarations.clear();
+        references.clear();
+        new Analysis().resolve(statements);
+        if (enabled(Pass.INLINE)) findInlineable(statements);
+        List<Stmt> optimized = optimizeAll(statements);
+        if (enabled(Pass.INLINE)) bindInlines(optimized);
+        if (optimized != statements) {
+            new Resolver().resolve(optimized);
+        }
+        return optimized;
+    }
+
+    String summary() {
+        return "[optimizer] folded " + folded + " expressions, propagated " + propagated
+            + " locals, removed " + branches + " branches, " + unreachable
+            + " unreachable statements, " + deadStores + " dead stores and inlined "
+            + inlined + " calls";
+    }
+
+    /**
+     * Collects the top-level functions that can be inlined. A name declared
+     * more than once at the top level is left out, since which declaration a
+     * call reaches depends on when it runs.
+     */
+    private void findInlineable(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            Token name = null;
+            if (stmt instanceof Var) name = ((Var) stmt).name;
+            if (stmt instanceof Function) name = ((Function) stmt).name;
+            if (stmt instanceof Class) name = ((Class) stmt).name;
+            if (name != null) topLevel.merge(name.lexeme, 1, Integer::sum);
+            if (stmt instanceof Function && isInlineable((Function) stmt)) {
+                inlineable.put(name.lexeme, (Function) stmt);
+            }
+        }
+        inlineable.keySet().removeIf(name -> topLevel.get(name) > 1);
+    }
+
+    private static boolean isInlineable(Function function) {
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Return)) return false;
+        Expr value = ((Return) function.body.get(0)).value;
+        return value != null && inlineSize(value) <= MAX_INLINE_SIZE;
+    }
+
+    /**
+     * Counts the nodes of an expression. Anything that could run other code,
+     * such as a call, an assignment or a closure's variable, counts as too big.
+     */
+    private static int inlineSize(Expr expr) {
+        if (expr instanceof Literal) return 1;
+        if (expr instanceof Variable) return ((Variable) expr).upvalue < 0 ? 1 : MAX_INLINE_SIZE + 1;
+        if (expr instanceof Grouping) return inlineSize(((Grouping) expr).expression);
+        if (expr instanceof Get) return 1 + inlineSize(((Get) expr).object);
+        if (expr instanceof Unary) return 1 + inlineSize(((Unary) expr).right);
+        if (expr instanceof Binary) {
+            return 1 + inlineSize(((Binary) expr).left) + inlineSize(((Binary) expr).right);
+        }
+        if (expr instanceof Logical) {
+            return 1 + inlineSize(((Logical) expr).left) + inlineSize(((Logical) expr).right);
+        }
+        return MAX_INLINE_SIZE + 1;
+    }
+
+    /**
+     * Points each Inline node at the declaration that ends up in the
+     * program, which the other passes may have rewritten.
+     */
+    private void bindInlines(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Function) functions.put(((Function) stmt).name.lexeme, (Function) stmt);
+        }
+        for (Inline inline : inlines) {
+            Function function = functions.get(((Variable) inline.call.callee).name.lexeme);
+            if (function != null && isInlineable(function)) {
+                inline.function = function;
+            } else {
+                inline.deoptimized = true;
+            }
+        }
+        inlines.clear();
+    }
+
+    private boolean enabled(Pass pass) {
+        return passes.contains(pass);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /** Returns the rewritten statement, or null if it was removed. */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /** Rewrites a statement that cannot be removed, only emptied. */
+    private Stmt optimizeBody(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : new Block(new ArrayList<>());
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt stmt = statements.get(i);
+            Stmt optimized = optimize(stmt);
+            if (optimized != stmt) changed = true;
+            if (optimized != null) result.add(optimized);
+
+            if (stmt instanceof Return && enabled(Pass.ELIMINATE) && i + 1 < statements.size()) {
+                unreachable += statements.size() - i - 1;
+                changed = true;
+                break;
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    private List<Expr> optimizeArguments(List<Expr> arguments) {
+        List<Expr> result = new ArrayList<>(arguments.size());
+        boolean changed = false;
+        for (Expr argument : arguments) {
+            Expr optimized = optimize(argument);
+            if (optimized != argument) changed = true;
+            result.add(optimized);
+        }
+        return changed ? result : arguments;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        return statements == stmt.statements ? stmt : new Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // What is left of a dead store may be a bare literal.
+        if (enabled(Pass.ELIMINATE) && expression instanceof Literal) return null;
+        return expression == stmt.expression ? stmt : new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Class stmt) {
+        List<Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Function method : stmt.methods) {
+            Function optimized = optimizeFunction(method);
+            if (optimized != method) changed = true;
+            methods.add(optimized);
+        }
+        return changed ? new Class(stmt.name, stmt.superclass, methods) : stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        Binding binding = declarations.get(stmt);
+        if (binding != null && binding.reads == 0 && enabled(Pass.ELIMINATE)) {
+            deadStores++;
+            return null;
+        }
+        return optimizeFunction(stmt);
+    }
+
+    private Function optimizeFunction(Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        return body == stmt.body ? stmt : new Function(stmt.name, stmt.params, body);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Binding binding = declarations.get(stmt);
+        if (binding != null) {
+            boolean literal = initializer == null || initializer instanceof Literal;
+            if (literal && binding.writes == 0 && !binding.pinned && binding.reads > 0
+                    && enabled(Pass.PROPAGATE)) {
+                binding.constant = true;
+                binding.value = initializer == null ? null : ((Literal) initializer).value;
+                propagated++;
+            }
+            if ((binding.reads == 0 || binding.constant) && enabled(Pass.ELIMINATE)) {
+                deadStores++;
+                if (literal) return null;
+                return new Expression(initializer);
+            }
+        }
+        return initializer == stmt.initializer ? stmt : new Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)
+                && enabled(Pass.ELIMINATE)) {
+            branches++;
+            return null;
+        }
+        Stmt body = optimizeBody(stmt.body);
+        return condition == stmt.condition && body == stmt.body ? stmt : new While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(For stmt) {
+        Stmt initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)
+                && enabled(Pass.ELIMINATE)) {
+            branches++;
+            if (initializer instanceof Var) {
+                // Keeps the counter in a scope of its own.
+                List<Stmt> statements = new ArrayList<>();
+                statements.add(initializer);
+                return new Block(statements);
+            }
+            return initializer;
+        }
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+        Stmt body = optimizeBody(stmt.body);
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal && enabled(Pass.ELIMINATE)) {
+            branches++;
+            Stmt taken = Interpreter.isTruthy(((Literal) condition).value) ? stmt.thenBranch : stmt.elseBranch;
+            return taken == null ? null : optimize(taken);
+        }
+        Stmt thenBranch = optimizeBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimizeBody(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Literal && right instanceof Literal && enabled(Pass.FOLD)) {
+            Object value = fold(expr.operator.type, ((Literal) left).value, ((Literal) right).value);
+            if (value != NOT_CONSTANT) {
+                folded++;
+                return new Literal(value);
+            }
+        }
+        return left == expr.left && right == expr.right ? expr : new Binary(left, expr.operator, right);
+    }
+
+    /**
+     * Applies a binary operator the way the Interpreter would, or returns
+     * NOT_CONSTANT for operands that would be a runtime error.
+     */
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) return (String) left + (String) right;
+                break;
+            default:
+                break;
+        }
+        if (!(left instanceof Double && right instanceof Double)) return NOT_CONSTANT;
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            default: return NOT_CONSTANT;
+        }
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Literal && enabled(Pass.FOLD)) {
+            Object value = ((Literal) right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                folded++;
+                return new Literal(!Interpreter.isTruthy(value));
+            }
+            if (value instanceof Double) {
+                folded++;
+                return new Literal(-(double) value);
+            }
+        }
+        return right == expr.right ? expr : new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = optimize(expr.left);
+        if (left instanceof Literal && enabled(Pass.FOLD)) {
+            folded++;
+            boolean truthy = Interpreter.isTruthy(((Literal) left).value);
+            boolean shortCircuits = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            return shortCircuits ? left : optimize(expr.right);
+        }
+        Expr right = optimize(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Literal && enabled(Pass.FOLD)) return expression;
+        return expression == expr.expression ? expr : new Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        Binding binding = references.get(expr);
+        if (binding != null && binding.constant) {
+            return new Literal(binding.value);
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = optimize(expr.value);
+        Binding binding = references.get(expr);
+        if (binding != null && binding.reads == 0 && enabled(Pass.ELIMINATE)) {
+            deadStores++;
+            return value;
+        }
+        return value == expr.value ? expr : new Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeArguments(expr.arguments);
+        Call call = callee == expr.callee && arguments == expr.arguments
+            ? expr : new Call(callee, expr.paren, arguments);
+        if (callee instanceof Variable && ((Variable) callee).depth < 0 && enabled(Pass.INLINE)) {
+            Function function = inlineable.get(((Variable) callee).name.lexeme);
+            if (function != null && function.params.size() == arguments.size()) {
+                inlined++;
+                Inline inline = new Inline(call);
+                inlines.add(inline);
+                return inline;
+            }
+        }
+        return call;
+    }
+
+    @Override
+    public Expr visitInlineExpr(Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvokeExpr(Invoke expr) {
+        Expr object = optimize(expr.object);
+        List<Expr> arguments = optimizeArguments(expr.arguments);
+        if (object == expr.object && arguments == expr.arguments) return expr;
+        return new Invoke(object, expr.name, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Expr object = optimize(expr.object);
+        return object == expr.object ? expr : new Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        return object == expr.object && value == expr.value ? expr : new Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    /**
+     * Counts the reads and writes of every local. It walks scopes exactly as
+     * the Resolver does, so a resolved (depth, slot) pair finds the binding.
+     */
+    private class Analysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Stack<List<Binding>> scopes = new Stack<>();
+
+        void resolve(List<Stmt> statements) {
+            for (Stmt stmt : statements) {
+                stmt.accept(this);
+            }
+        }
+
+        private void resolve(Expr expr) {
+            expr.accept(this);
+        }
+
+        private void declare(Stmt declaration) {
+            if (scopes.isEmpty()) return;
+            Binding binding = new Binding();
+            scopes.peek().add(binding);
+            if (declaration != null) declarations.put(declaration, binding);
+        }
+
+        private Binding binding(int depth, int slot) {
+            return scopes.get(scopes.size() - 1 - depth).get(slot);
+        }
+
+        @Override
+        public Void visitBlockStmt(Block stmt) {
+            if (stmt.scoped) scopes.push(new ArrayList<>());
+            resolve(stmt.statements);
+            if (stmt.scoped) scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Expression stmt) {
+            resolve(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Class stmt) {
+            declare(stmt);
+            if (stmt.superclass != null) {
+                resolve(stmt.superclass);
+                Binding binding = references.get(stmt.superclass);
+                if (binding != null) binding.pinned = true;
+                scopes.push(new ArrayList<>());
+                declare(null);
+            }
+            scopes.push(new ArrayList<>());
+            declare(null);
+            for (Function method : stmt.methods) {
+                function(method);
+            }
+            scopes.pop();
+            if (stmt.superclass != null) scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Function stmt) {
+            declare(stmt);
+            function(stmt);
+            return null;
+        }
+
+        private void function(Function stmt) {
+            scopes.push(new ArrayList<>());
+            for (int i = 0; i < stmt.params.size(); i++) {
+                declare(null);
+            }
+            resolve(stmt.body);
+            scopes.pop();
+        }
+
+        @Override
+        public Void visitPrintStmt(Print stmt) {
+            resolve(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Return stmt) {
+            if (stmt.value != null) resolve(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Var stmt) {
+            declare(stmt);
+            if (stmt.initializer != null) resolve(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(While stmt) {
+            resolve(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(For stmt) {
+            if (stmt.scoped) scopes.push(new ArrayList<>());
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            resolve(stmt.condition);
+            if (stmt.increment != null) resolve(stmt.increment);
+            stmt.body.accept(this);
+            if (stmt.scoped) scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(If stmt) {
+            resolve(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Binary expr) {
+            resolve(expr.left);
+            resolve(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Call expr) {
+            resolve(expr.callee);
+            for (Expr argument : expr.arguments) resolve(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Inline expr) {
+            return visitCallExpr(expr.call);
+        }
+
+        @Override
+        public Void visitGetExpr(Get expr) {
+            resolve(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitInvokeExpr(Invoke expr) {
+            resolve(expr.object);
+            for (Expr argument : expr.arguments) resolve(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Set expr) {
+            resolve(expr.value);
+            resolve(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Grouping expr) {
+            resolve(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Logical expr) {
+            resolve(expr.left);
+            resolve(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Unary expr) {
+            resolve(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Variable expr) {
+            if (expr.depth < 0) return null;
+            Binding binding = binding(expr.depth, expr.slot);
+            binding.reads++;
+            references.put(expr, binding);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Assign expr) {
+            resolve(expr.value);
+            if (expr.depth < 0) return null;
+            Binding binding = binding(expr.depth, expr.slot);
+            binding.writes++;
+            references.put(expr, binding);
+            return null;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.example;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import com.example.Expr.Get;
@@ -14,11 +13,56 @@ import com.example.Token.TokenType;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    // How tightly each infix or postfix operator binds, from loosest to
+    // tightest. Every other token has precedence 0, which ends an expression.
+    private static final int ASSIGNMENT = 1;
+    private static final int OR = 2;
+    private static final int AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int UNARY = 8;
+    private static final int CALL = 9;
+
+    private static final int[] infixPrecedence = new int[TokenType.values().length];
+
+    static {
+        infixPrecedence[TokenType.EQUAL.ordinal()] = ASSIGNMENT;
+        infixPrecedence[TokenType.OR.ordinal()] = OR;
+        infixPrecedence[TokenType.AND.ordinal()] = AND;
+        infixPrecedence[TokenType.BANG_EQUAL.ordinal()] = EQUALITY;
+        infixPrecedence[TokenType.EQUAL_EQUAL.ordinal()] = EQUALITY;
+        infixPrecedence[TokenType.GREATER.ordinal()] = COMPARISON;
+        infixPrecedence[TokenType.GREATER_EQUAL.ordinal()] = COMPARISON;
+        infixPrecedence[TokenType.LESS.ordinal()] = COMPARISON;
+        infixPrecedence[TokenType.LESS_EQUAL.ordinal()] = COMPARISON;
+        infixPrecedence[TokenType.MINUS.ordinal()] = TERM;
+        infixPrecedence[TokenType.PLUS.ordinal()] = TERM;
+        infixPrecedence[TokenType.SLASH.ordinal()] = FACTOR;
+        infixPrecedence[TokenType.STAR.ordinal()] = FACTOR;
+        infixPrecedence[TokenType.LEFT_PAREN.ordinal()] = CALL;
+        infixPrecedence[TokenType.DOT.ordinal()] = CALL;
+    }
+
+    private final TokenBuffer tokens;
+    // Scans more tokens on demand, or null if the buffer is complete.
+    private final Scanner scanner;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens) {
         this.tokens = tokens;
+        this.scanner = null;
+    }
+
+    /**
+     * Creates a Parser that has the Scanner scan only as far as it has
+     * parsed, so a script's first declarations can be returned by next
+     * before the rest of it has been read.
+     */
+    Parser(Scanner scanner) {
+        this.tokens = scanner.tokens();
+        this.scanner = scanner;
     }
 
     List<Stmt> parse() {
@@ -30,6 +74,25 @@ public class Parser {
         return statements;
     } 
 
+    /** Whether there is another top-level declaration for next to parse. */
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    /**
+     * Parses one top-level declaration. Returns null if it had a syntax
+     * error, which has been reported, in which case the next call starts at
+     * the following statement.
+     *
+     * The tokens of the declaration are discarded once it is parsed, since
+     * the syntax tree keeps the ones it needs as Tokens.
+     */
+    Stmt next() {
+        Stmt declaration = declaration();
+        tokens.discardBefore(current);
+        return declaration;
+    }
+
     private Stmt declaration() {
         try {
             if (match(TokenType.CLASS)) return classDeclaration();
@@ -43,7 +106,7 @@ public class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        Token name = consumeToken(TokenType.IDENTIFIER, "Expect class name.");
         Expr.Variable superclass = null;
         if (match(TokenType.LESS)) {
             consume(TokenType.IDENTIFIER, "Extract superclass name.");
@@ -61,7 +124,7 @@ public class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        Token name = consumeToken(TokenType.IDENTIFIER, "Expect " + kind + " name.");
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if(!check(TokenType.RIGHT_PAREN)) {
@@ -69,7 +132,7 @@ public class Parser {
                 if (parameters.size() > 255) {
                     error(peek(), "Too many arguments for a function (>255)");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name"));
+                parameters.add(consumeToken(TokenType.IDENTIFIER, "Expected parameter name"));
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -122,16 +185,8 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after 'condition'.");
         Stmt body = statement();
 
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt whileStatement() {
@@ -168,7 +223,7 @@ public class Parser {
     }
 
     private Stmt varStatement() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = consumeToken(TokenType.IDENTIFIER, "Expect variable name.");
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
@@ -190,112 +245,136 @@ public class Parser {
     }
 
     private Expr expression() {
-        return assignment();
+        return parsePrecedence(ASSIGNMENT);
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-        
-        if (match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Variable) {
-                Token name = ((Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-            error(equals, "Invalid assignment target.");
+    /**
+     * Parses an expression whose operators all bind at least as tightly as
+     * {@code precedence}: a prefix expression, then as many infix and
+     * postfix operators as the table allows.
+     */
+    private Expr parsePrecedence(int precedence) {
+        Expr expr = prefix();
+        while (true) {
+            TokenType type = type(current);
+            int infix = infixPrecedence[type.ordinal()];
+            if (infix < precedence) return expr;
+            advance();
+            expr = infix(expr, type, infix);
         }
-
-        return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+    private Expr prefix() {
+        switch (type(current)) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(tokens.literal(current - 1));
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                consume(TokenType.RIGHT_PAREN, "Expect ) after expression");
+                return new Expr.Grouping(expr);
+            }
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(previous());
+            case THIS:
+                advance();
+                return new Expr.This(previous());
+            case SUPER: {
+                advance();
+                Token keyword = previous();
+                consume(TokenType.DOT, "Expect '.' after 'super.'");
+                Token method = consumeToken(TokenType.IDENTIFIER, "Expect superclass method name");
+                return new Expr.Super(keyword, method);
+            }
+            case MINUS:
+            case BANG: {
+                advance();
+                Token operator = previous();
+                return new Expr.Unary(operator, parsePrecedence(UNARY));
+            }
+            default:
+                throw error(peek(), "Expect expression");
         }
-        
-        return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+    /** Parses the rest of an infix or postfix expression after its operator. */
+    private Expr infix(Expr left, TokenType type, int precedence) {
+        switch (type) {
+            case EQUAL:
+                return assignment(left);
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT: {
+                Token name = consumeToken(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, name);
+            }
+            case AND:
+            case OR: {
+                Token operator = previous();
+                return new Expr.Logical(left, operator, parsePrecedence(precedence + 1));
+            }
+            default: {
+                Token operator = previous();
+                return new Expr.Binary(left, operator, parsePrecedence(precedence + 1));
+            }
         }
-
-        return expr;
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    private Expr assignment(Expr target) {
+        int equals = current - 1;
+        // Right-associative, so a = b = c assigns b first.
+        Expr value = parsePrecedence(ASSIGNMENT);
 
-        while(match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+        if (target instanceof Variable) {
+            Token name = ((Variable) target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Get) {
+            Expr.Get get = (Expr.Get)target;
+            return new Expr.Set(get.object, get.name, value);
         }
-
-        return expr;
+        error(tokens.token(equals), "Invalid assignment target.");
+        return target;
     }
 
-    private Error error(Token token, String message) {
+    private ParseError error(Token token, String message) {
         Lox.error(token.line, message);
-        return new Error();
+        return new ParseError();
     }
 
-    private Token consume(TokenType type, String errorMsg) {
-        if(check(type)) return advance();
+    private void consume(TokenType type, String errorMsg) {
+        if(check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(), errorMsg);
     }
 
-    private Expr primary() {
-        if (match(TokenType.FALSE)) return new Expr.Literal(false);
-        if (match(TokenType.TRUE)) return new Expr.Literal(true);
-        if (match(TokenType.NIL)) return new Expr.Literal(null);
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-        if (match(TokenType.LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ) after expression");
-            return new Expr.Grouping(expr);
-        }
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-        if (match(TokenType.THIS)) {
-            return new Expr.This(previous());
-        }
-        if (match(TokenType.SUPER)) {
-            Token keyword = previous();
-            consume(TokenType.DOT, "Expect '.' after 'super.'");
-            Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name");
-            return new Expr.Super(keyword, method);
-        }
-
-        throw error(peek(), "Expect expression");
+    private Token consumeToken(TokenType type, String errorMsg) {
+        consume(type, errorMsg);
+        return previous();
     }
 
     private void synchronize() {
         advance();
         
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) {
+            if (type(current - 1) == TokenType.SEMICOLON) {
                 return;
             }
             
-            switch (peek().type) {
+            switch (type(current)) {
                 case CLASS:
                 case COMMA:
                 case FUN:
@@ -312,33 +391,6 @@ public class Parser {
         }
     }
 
-    private Expr unary() {
-        if (match(TokenType.MINUS, TokenType.BANG)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-
-        return call();
-    }
-
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
-        }
-
-        return expr;
-    }
-
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -350,76 +402,48 @@ public class Parser {
             } while (match(TokenType.COMMA));
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
-
-        return new Expr.Call(callee, paren, arguments);
-    }
-
-    private Expr factor() {
-        Expr expr = unary();
+        Token paren = consumeToken(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
 
-        while(match(TokenType.SLASH, TokenType.STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        // A method call gets its own node so the method can be called
+        // without creating a bound method first.
+        if (callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) callee;
+            return new Expr.Invoke(get.object, get.name, paren, arguments);
         }
-
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-
-        while(match(TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = term();
-
-        while(match(TokenType.GREATER_EQUAL, TokenType.GREATER, TokenType.LESS_EQUAL, TokenType.LESS)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+        return new Expr.Call(callee, paren, arguments);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
-        return false;
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
     }
 
+    /** Creates the Token just consumed, for the syntax tree to keep. */
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean check(TokenType toCheck) {
         if (isAtEnd()) return false;
-        return peek().type == toCheck;
+        return type(current) == toCheck;
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return type(current) == TokenType.EOF;
+    }
+
+    private TokenType type(int index) {
+        if (index >= tokens.size()) scanner.scanThrough(index);
+        return tokens.type(index);
     }
 
+    /** Creates the next Token, for an error message. */
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 }
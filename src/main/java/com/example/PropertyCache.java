@@ -0,0 +1,65 @@
+package com.example;
+
+/**
+ * An inline cache for one property access site, keyed by the shape of the
+ * receiver.
+ *
+ * For a get, an entry holds the field slot, or -1 and the method the name
+ * resolves to. For a set, it holds the slot and the shape the instance has
+ * afterwards, which differs when the set adds the field. Since each class has
+ * its own root shape, a shape hit also settles which class the method came
+ * from.
+ *
+ * A site starts monomorphic and takes up to MAX_ENTRIES shapes. A site that
+ * sees more goes megamorphic and stops caching.
+ */
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private Shape[] shapes;
+    private int[] slots;
+    private Object[] targets;
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    /** Returns the entry for a shape, or -1 on a miss. */
+    int find(Shape shape) {
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return i;
+        }
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    LoxFunction method(int entry) {
+        return (LoxFunction) targets[entry];
+    }
+
+    Shape transition(int entry) {
+        return (Shape) targets[entry];
+    }
+
+    void add(Shape shape, int slot, Object target) {
+        if (megamorphic) return;
+        if (count == MAX_ENTRIES) {
+            megamorphic = true;
+            shapes = null;
+            slots = null;
+            targets = null;
+            count = 0;
+            return;
+        }
+        if (shapes == null) {
+            shapes = new Shape[MAX_ENTRIES];
+            slots = new int[MAX_ENTRIES];
+            targets = new Object[MAX_ENTRIES];
+        }
+        shapes[count] = shape;
+        slots[count] = slot;
+        targets[count] = target;
+        count++;
+    }
+}
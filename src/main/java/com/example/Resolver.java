@@ -1,5 +1,6 @@
 package com.example;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,8 @@ import com.example.Expr.Binary;
 import com.example.Expr.Call;
 import com.example.Expr.Get;
 import com.example.Expr.Grouping;
+import com.example.Expr.Inline;
+import com.example.Expr.Invoke;
 import com.example.Expr.Literal;
 import com.example.Expr.Logical;
 import com.example.Expr.Set;
@@ -20,12 +23,14 @@ import com.example.Expr.Variable;
 import com.example.Stmt.Block;
 import com.example.Stmt.Class;
 import com.example.Stmt.Expression;
+import com.example.Stmt.For;
 import com.example.Stmt.Function;
 import com.example.Stmt.If;
 import com.example.Stmt.Print;
 import com.example.Stmt.Return;
 import com.example.Stmt.Var;
 import com.example.Stmt.While;
+import com.example.Token.TokenType;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private enum FunctionType {
@@ -36,15 +41,46 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         NONE, CLASS
     }
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-    private FunctionType currentFunction = FunctionType.NONE;
-    private ClassType currentClass = ClassType.NONE;
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+        // Set when a function nested inside the declaring one uses the
+        // variable, which then has to live in a Cell.
+        boolean captured = false;
+        // The declaration and the accesses from its own function, told about
+        // the Cell when the scope ends.
+        final List<Object> sites = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /** A function being resolved, with the cells its closures capture. */
+    private static class Closure {
+        final Closure enclosing;
+        // Index in scopes of the function's own outermost scope.
+        final int base;
+        final Map<Local, Integer> upvalues = new HashMap<>();
+        final List<Capture> captures = new ArrayList<>();
+
+        Closure(Closure enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+        int add(Local local, Capture capture) {
+            upvalues.put(local, captures.size());
+            captures.add(capture);
+            return captures.size() - 1;
+        }
     }
 
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
+    private Closure currentClosure = null;
+    private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+
     public void resolve(List<Stmt> statements) {
         for (Stmt stmt : statements) {
             resolve(stmt);
@@ -60,18 +96,40 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
     }
 
     @Override
     public Void visitBlockStmt(Block stmt) {
-        beginScope();
+        // A block that declares nothing, such as the body of a desugared for
+        // loop, runs in the scope around it.
+        stmt.scoped = declaresVariables(stmt.statements);
+        if (stmt.scoped) beginScope();
         resolve(stmt.statements);
-        endScope();
+        if (stmt.scoped) endScope();
         return null;
     }
+
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Var || stmt instanceof Function || stmt instanceof Class) return true;
+        }
+        return false;
+    }
     private void endScope() {
-        scopes.pop();
+        for (Local local : scopes.pop().values()) {
+            for (Object site : local.sites) {
+                setCell(site, local.captured);
+            }
+        }
+    }
+
+    private static void setCell(Object site, boolean cell) {
+        if (site instanceof Variable) ((Variable) site).cell = cell;
+        else if (site instanceof Assign) ((Assign) site).cell = cell;
+        else if (site instanceof Var) ((Var) site).cell = cell;
+        else if (site instanceof Function) ((Function) site).cell = cell;
+        else if (site instanceof Class) ((Class) site).cell = cell;
     }
 
     @Override
@@ -82,7 +140,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -91,6 +149,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Function stmt, FunctionType functionType) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = functionType;
+        Closure closure = new Closure(currentClosure, scopes.size());
+        if (functionType == FunctionType.METHOD || functionType == FunctionType.INITIALIZER) {
+            closure.add(scopes.peek().get("this"), Capture.RECEIVER);
+        }
+        currentClosure = closure;
 
         beginScope();
         for (Token param : stmt.params) {
@@ -98,7 +161,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             define(param);
         }
         resolve(stmt.body);
+        // Lets a call allocate the frame once, parameters and locals alike.
+        stmt.frameSize = scopes.peek().size();
+        stmt.capturedParams = scopes.peek().values().stream()
+            .filter(local -> local.captured && local.slot < stmt.params.size())
+            .mapToInt(local -> local.slot)
+            .toArray();
         endScope();
+        stmt.captures = closure.captures.toArray(Capture.NONE);
+        currentClosure = closure.enclosing;
         currentFunction = enclosingFunction; 
     }
 
@@ -117,6 +188,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             if (currentFunction == FunctionType.INITIALIZER) {
                 Lox.error(stmt.keyword, "Can't return a value from initializer.");
             }
+            stmt.tailCall = stmt.value instanceof Call || stmt.value instanceof Invoke;
             resolve(stmt.value);
         }
         return null;
@@ -124,7 +196,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -134,17 +206,29 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void define(Token name) {
         if (scopes.empty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
     }
 
     private void declare(Token name) {
+        declare(name, null);
+    }
+
+    private void declare(Token name, Stmt declaration) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
+        Map<String, Local> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
             Lox.error(name, "Variable with this name is already in the scope.");
         }
-        scope.put(name.lexeme, false);
+        Local local = new Local(scope.size());
+        if (declaration != null) local.sites.add(declaration);
+        scope.put(name.lexeme, local);
+    }
+
+    private void declareImplicit(String name) {
+        Local local = new Local(scopes.peek().size());
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
     @Override
@@ -154,6 +238,56 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(For stmt) {
+        stmt.scoped = stmt.initializer instanceof Var;
+        if (stmt.scoped) beginScope();
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+        if (stmt.scoped) endScope();
+        // Captures are only known once the scope has ended.
+        stmt.counted = isCounted(stmt);
+        return null;
+    }
+
+    /**
+     * Whether the loop has the shape {@code for (var i = a; i < b; i = i + c)}
+     * with a numeric literal step, any of the four comparisons, and a counter
+     * no closure captures, so the Interpreter can count in a double.
+     */
+    private static boolean isCounted(For stmt) {
+        if (!(stmt.initializer instanceof Var) || ((Var) stmt.initializer).cell) return false;
+        String name = ((Var) stmt.initializer).name.lexeme;
+
+        if (!(stmt.condition instanceof Binary)) return false;
+        Binary condition = (Binary) stmt.condition;
+        switch (condition.operator.type) {
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                break;
+            default:
+                return false;
+        }
+        if (!isCounter(condition.left, name)) return false;
+
+        if (!(stmt.increment instanceof Assign)) return false;
+        Assign increment = (Assign) stmt.increment;
+        if (!increment.name.lexeme.equals(name) || increment.depth != 0) return false;
+        if (!(increment.value instanceof Binary)) return false;
+        Binary step = (Binary) increment.value;
+        return (step.operator.type == TokenType.PLUS || step.operator.type == TokenType.MINUS)
+            && isCounter(step.left, name)
+            && step.right instanceof Literal
+            && ((Literal) step.right).value instanceof Double;
+    }
+
+    private static boolean isCounter(Expr expr, String name) {
+        return expr instanceof Variable
+            && ((Variable) expr).name.lexeme.equals(name)
+            && ((Variable) expr).depth == 0;
+    }
+
     @Override
     public Void visitIfStmt(If stmt) {
         resolve(stmt.condition);
@@ -180,6 +314,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    /** The inlined body was resolved with its declaration. */
+    @Override
+    public Void visitInlineExpr(Inline expr) {
+        resolve(expr.call);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Grouping expr) {
         resolve(expr.expression);
@@ -206,20 +347,71 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        Local local = scopes.isEmpty() ? null : scopes.peek().get(expr.name.lexeme);
+        if (local != null && !local.defined) {
             Lox.error(expr.name, "Can't read local variable in it's own initializer");
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if (expr.depth >= 0) {
+            expr.slot = slotOf(expr.name, expr.depth);
+            expr.upvalue = upvalue(expr.name.lexeme, expr.depth, expr);
+        }
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /**
+     * Returns how many scopes out the name is declared, or -1 if it is global.
+     */
+    private int depthOf(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme).slot;
+    }
+
+    /**
+     * Returns which of the current function's cells holds the local
+     * {@code depth} scopes out, or -1 if the function declares it itself, in
+     * which case {@code site} is recorded as one of its accesses.
+     */
+    private int upvalue(String name, int depth, Object site) {
+        int index = scopes.size() - 1 - depth;
+        Local local = scopes.get(index).get(name);
+        if (currentClosure == null || index >= currentClosure.base) {
+            if (site != null) local.sites.add(site);
+            return -1;
+        }
+        local.captured = true;
+        return resolveUpvalue(currentClosure, local, index);
+    }
+
+    private int resolveUpvalue(Closure closure, Local local, int index) {
+        Integer upvalue = closure.upvalues.get(local);
+        if (upvalue != null) return upvalue;
+
+        if (closure.enclosing == null || index >= closure.enclosing.base) {
+            return closure.add(local, Capture.local(runtimeDepth(closure.base - 1, index), local.slot));
+        }
+        return closure.add(local, Capture.upvalue(resolveUpvalue(closure.enclosing, local, index)));
+    }
+
+    /**
+     * Counts the scopes from {@code from} out to {@code to} that exist at run
+     * time. The scope holding 'this' does not: a method gets its receiver
+     * through its closure instead.
+     */
+    private int runtimeDepth(int from, int to) {
+        int depth = 0;
+        for (int i = from; i > to; i--) {
+            if (!scopes.get(i).containsKey("this")) depth++;
+        }
+        return depth;
     }
 
     @Override
@@ -228,14 +420,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = depthOf(expr.keyword);
+        expr.slot = slotOf(expr.keyword, expr.depth);
+        expr.upvalue = upvalue("this", expr.depth, null);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = depthOf(expr.name);
+        if (expr.depth >= 0) {
+            expr.slot = slotOf(expr.name, expr.depth);
+            expr.upvalue = upvalue(expr.name.lexeme, expr.depth, expr);
+        }
         return null;
     }
 
@@ -244,7 +442,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         if (stmt.superclass != null 
@@ -258,11 +456,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            declareImplicit("super");
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        declareImplicit("this");
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -286,6 +484,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInvokeExpr(Invoke expr) {
+        resolve(expr.object);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
     @Override
     public Void visitSetExpr(Set expr) {
         resolve(expr.value);
@@ -295,7 +502,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSuperExpr(Super expr) {
-        resolveLocal(expr, expr.keyword);
+        expr.depth = depthOf(expr.keyword);
+        if (expr.depth >= 0) {
+            expr.upvalue = upvalue("super", expr.depth, null);
+            expr.receiver = upvalue("this", expr.depth - 1, null);
+        }
         return null;
     }
 }
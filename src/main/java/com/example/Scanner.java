@@ -1,133 +1,215 @@
 package com.example;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import com.example.Token.TokenType;
 
 public class Scanner 
 {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence source;
+    private final int length;
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private boolean scannedEof = false;
 
-    Scanner(String source) {
+    /**
+     * Scans a String or a MappedSource. Anything that is not ASCII may only
+     * appear in strings and comments, so the Scanner never has to decode it.
+     */
+    Scanner(CharSequence source) {
         this.source = source;
+        this.length = source.length();
+        this.tokens = new TokenBuffer(source);
     }
-    private static final Map<String, TokenType> keywords;
+    // Character classes for the main loop. Characters from 128 up are all
+    // OTHER, which is an error outside strings and comments.
+    private static final byte OTHER = 0;
+    private static final byte ALPHA = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPACE = 3;
+    private static final byte NEWLINE = 4;
+    private static final byte SINGLE = 5;
+    private static final byte OPERATOR = 6;
+    private static final byte SLASH = 7;
+    private static final byte QUOTE = 8;
+
+    private static final byte[] classes = new byte[128];
+    // The token a SINGLE or OPERATOR character makes on its own, and the
+    // token an OPERATOR makes followed by '='.
+    private static final TokenType[] singles = new TokenType[128];
+    private static final TokenType[] withEqual = new TokenType[128];
+
+    // Keywords by a perfect hash of their first and last characters and
+    // length, so identifiers are checked against at most one keyword
+    // without being cut out of the source.
+    private static final int KEYWORD_SLOTS = 32;
+    private static final String[] keywords = new String[KEYWORD_SLOTS];
+    private static final TokenType[] keywordTypes = new TokenType[KEYWORD_SLOTS];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-    }
-
-    List<Token> scanTokens() {
-        while(!isAtEnd()) {
-            start = current;
-            scanToken();
+        for (char c = 'a'; c <= 'z'; c++) classes[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++) classes[c] = ALPHA;
+        classes['_'] = ALPHA;
+        for (char c = '0'; c <= '9'; c++) classes[c] = DIGIT;
+        classes[' '] = SPACE;
+        classes['\t'] = SPACE;
+        classes['\r'] = SPACE;
+        classes['\n'] = NEWLINE;
+        classes['/'] = SLASH;
+        classes['"'] = QUOTE;
+
+        single('(', TokenType.LEFT_PAREN);
+        single(')', TokenType.RIGHT_PAREN);
+        single('{', TokenType.LEFT_BRACE);
+        single('}', TokenType.RIGHT_BRACE);
+        single(',', TokenType.COMMA);
+        single('.', TokenType.DOT);
+        single('-', TokenType.MINUS);
+        single('+', TokenType.PLUS);
+        single(';', TokenType.SEMICOLON);
+        single('*', TokenType.STAR);
+        operator('!', TokenType.BANG, TokenType.BANG_EQUAL);
+        operator('=', TokenType.EQUAL, TokenType.EQUAL_EQUAL);
+        operator('>', TokenType.GREATER, TokenType.GREATER_EQUAL);
+        operator('<', TokenType.LESS, TokenType.LESS_EQUAL);
+
+        keyword("and", TokenType.AND);
+        keyword("class", TokenType.CLASS);
+        keyword("else", TokenType.ELSE);
+        keyword("false", TokenType.FALSE);
+        keyword("for", TokenType.FOR);
+        keyword("fun", TokenType.FUN);
+        keyword("if", TokenType.IF);
+        keyword("nil", TokenType.NIL);
+        keyword("or", TokenType.OR);
+        keyword("print", TokenType.PRINT);
+        keyword("return", TokenType.RETURN);
+        keyword("super", TokenType.SUPER);
+        keyword("this", TokenType.THIS);
+        keyword("true", TokenType.TRUE);
+        keyword("var", TokenType.VAR);
+        keyword("while", TokenType.WHILE);
+    }
+
+    private static void single(char c, TokenType type) {
+        classes[c] = SINGLE;
+        singles[c] = type;
+    }
+
+    private static void operator(char c, TokenType type, TokenType withEqualType) {
+        classes[c] = OPERATOR;
+        singles[c] = type;
+        withEqual[c] = withEqualType;
+    }
+
+    private static void keyword(String keyword, TokenType type) {
+        int slot = keywordSlot(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length());
+        if (keywords[slot] != null) {
+            throw new IllegalStateException("Keywords '" + keywords[slot] + "' and '" + keyword + "' share a slot");
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        keywords[slot] = keyword;
+        keywordTypes[slot] = type;
+    }
+
+    private static int keywordSlot(char first, char last, int length) {
+        return (first + 5 * last + length) & (KEYWORD_SLOTS - 1);
+    }
+
+    private static byte classOf(char c) {
+        return c < 128 ? classes[c] : OTHER;
+    }
 
+    TokenBuffer scanTokens() {
+        // Room for a token every few characters before the arrays grow.
+        tokens.reserve(length / 4 + 16);
+        scanThrough(Integer.MAX_VALUE);
         return tokens;
     }
 
+    /**
+     * The buffer this Scanner fills. A Parser that reads it while scanning
+     * calls scanThrough before looking past the tokens scanned so far.
+     */
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
+    /** Scans until the buffer holds the token at index or the EOF token. */
+    void scanThrough(int index) {
+        while (tokens.size() <= index && !scannedEof) {
+            if (isAtEnd()) {
+                tokens.add(TokenType.EOF, length, 0, line);
+                scannedEof = true;
+            } else {
+                start = current;
+                scanToken();
+            }
+        }
+    }
+
     private void scanToken() {
         char c = advance();
-        
-        switch (c) {
-            case '(': addToken(TokenType.LEFT_PAREN); break;
-            case ')': addToken(TokenType.RIGHT_PAREN); break;
-            case '{': addToken(TokenType.LEFT_BRACE); break;
-            case '}': addToken(TokenType.RIGHT_BRACE); break;
-            case ',': addToken(TokenType.COMMA); break;
-            case '.': addToken(TokenType.DOT); break;
-            case '-': addToken(TokenType.MINUS); break;
-            case '+': addToken(TokenType.PLUS); break;
-            case ';': addToken(TokenType.SEMICOLON); break;
-            case '*': addToken(TokenType.STAR); break;
-            case '!': 
-                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
+
+        switch (classOf(c)) {
+            case SPACE:
+                break;
+            case NEWLINE:
+                line++;
+                break;
+            case ALPHA:
+                identifier();
                 break;
-            case '=': 
-                addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
+            case DIGIT:
+                number();
                 break;
-            case '>': 
-                addToken(match('=') ? TokenType.GREATER_EQUAL: TokenType.GREATER);
+            case SINGLE:
+                addToken(singles[c]);
                 break;
-            case '<': 
-                addToken(match('=') ? TokenType.LESS_EQUAL: TokenType.LESS);
+            case OPERATOR:
+                addToken(match('=') ? withEqual[c] : singles[c]);
                 break;
-            case '/':
+            case SLASH:
                 if (match('/')) {
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    while (current < length && source.charAt(current) != '\n') current++;
                 } else {
                     addToken(TokenType.SLASH);
                 }
                 break;
-            case '"':
+            case QUOTE:
                 string();
                 break;
-            case ' ':
-            case '\t':
-            case '\r':
-                break;
-            case '\n':
-                line++;
-                break;
-
             default:
-                if (isDigit(c)) {
-                    number();
-                } else if (isAlpha(c)) {
-                    identifier();
-                } else {
-                    Lox.error(line, "Unexpected character: " + c);
-                }
+                // One error for a whole character, however many bytes a
+                // MappedSource has for it.
+                while (current < length && source.charAt(current) >= 0x80) current++;
+                Lox.error(line, "Unexpected character: " + source.subSequence(start, current));
                 break;
         }
     }
 
     private void identifier() {
-        while (isAlphanumeric(peek())) advance();
-
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
-
-        addToken(type);
+        while (current < length && isAlphanumeric(source.charAt(current))) current++;
+        addToken(keyword(start, current - start));
     }
 
-    private boolean isAlphanumeric(char c) {
-        return isAlpha(c) || isDigit(c);
+    /** Returns the keyword the source has at start, or IDENTIFIER. */
+    private TokenType keyword(int start, int length) {
+        int slot = keywordSlot(source.charAt(start), source.charAt(start + length - 1), length);
+        String keyword = keywords[slot];
+        if (keyword == null || keyword.length() != length) return TokenType.IDENTIFIER;
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != keyword.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return keywordTypes[slot];
     }
 
-    private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                c == '_' ;
+    private boolean isAlphanumeric(char c) {
+        byte type = classOf(c);
+        return type == ALPHA || type == DIGIT;
     }
 
     private boolean isDigit(char c) {
-        return c >= '0' && c <= '9';
+        return classOf(c) == DIGIT;
     }
 
     private void number() {
@@ -139,11 +221,11 @@ public class Scanner
             while(isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= length) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -158,8 +240,7 @@ public class Scanner
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING);
     }
 
     private char peek() {
@@ -179,16 +260,11 @@ public class Scanner
         return source.charAt(current++);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
-    }
-
     private void addToken(TokenType type) {
-        addToken(type, null);
+        tokens.add(type, start, current - start, line);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
     }
 }
@@ -0,0 +1,45 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The field layout shared by every instance that was given the same fields
+ * in the same order. Instances keep their values in an Object[] indexed by
+ * the shape's slots, and move to a child shape when they gain a field.
+ *
+ * Each class has its own root, so a shape also identifies the class of the
+ * instances that have it.
+ */
+final class Shape {
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+    final int size;
+
+    Shape() {
+        this.slots = new HashMap<>();
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, String name) {
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size);
+        this.size = parent.size + 1;
+    }
+
+    /** Returns the slot holding a field, or -1 if this shape has no such field. */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /** Returns the shape with one more field, whose slot is this shape's size. */
+    Shape with(String name) {
+        Shape child = transitions.get(name);
+        if (child == null) {
+            child = new Shape(this, name);
+            transitions.put(name, child);
+        }
+        return child;
+    }
+}
@@ -12,6 +12,7 @@ abstract class Stmt {
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
+        R visitForStmt(For stmt);
         R visitIfStmt(If stmt);
     }
 
@@ -27,6 +28,7 @@ abstract class Stmt {
 
 
         final List<Stmt> statements;
+        boolean scoped = true;
     }
 
     static class Expression extends Stmt {
@@ -59,6 +61,7 @@ abstract class Stmt {
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+        boolean cell;
     }
 
     static class Function extends Stmt {
@@ -77,6 +80,12 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int hotness;
+        CompiledCode compiled;
+        int frameSize;
+        boolean cell;
+        Capture[] captures = Capture.NONE;
+        int[] capturedParams;
     }
 
     static class Print extends Stmt {
@@ -107,6 +116,7 @@ abstract class Stmt {
 
         final Token keyword;
         final Expr value;
+        boolean tailCall;
     }
 
     static class Var extends Stmt {
@@ -123,6 +133,7 @@ abstract class Stmt {
 
         final Token name;
         final Expr initializer;
+        boolean cell;
     }
 
     static class While extends Stmt {
@@ -141,6 +152,28 @@ abstract class Stmt {
         final Stmt body;
     }
 
+    static class For extends Stmt {
+        For (Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+        boolean scoped = true;
+        boolean counted;
+    }
+
     static class If extends Stmt {
         If (Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
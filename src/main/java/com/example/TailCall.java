@@ -0,0 +1,18 @@
+package com.example;
+
+/**
+ * A call in tail position that has not been made yet. A function body
+ * returns one instead of calling, and LoxFunction makes the call once the
+ * body's own Java frames are gone, so tail recursion runs in constant stack.
+ */
+final class TailCall {
+    final LoxFunction function;
+    final Cell[] upvalues;
+    final Object[] frame;
+
+    TailCall(LoxFunction function, Cell[] upvalues, Object[] frame) {
+        this.function = function;
+        this.upvalues = upvalues;
+        this.frame = frame;
+    }
+}
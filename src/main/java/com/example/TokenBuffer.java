@@ -0,0 +1,126 @@
+package com.example;
+
+import java.util.Arrays;
+
+import com.example.Token.TokenType;
+
+/**
+ * The tokens of a source text, kept in parallel primitive arrays that point
+ * into the text instead of as Token objects. The Parser only asks for a
+ * Token, and so for its lexeme and literal, when the syntax tree or an error
+ * message keeps it; punctuation and keywords are checked by type alone.
+ *
+ * Tokens are numbered from the start of the source. A streaming Parser
+ * discards the tokens of each declaration it has parsed, so the arrays only
+ * hold the tokens from the first one kept onwards.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final CharSequence source;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    // The number of the token in slot 0, and how many slots are in use.
+    private int first = 0;
+    private int count = 0;
+
+    TokenBuffer(CharSequence source) {
+        this.source = source;
+        types = new byte[INITIAL_CAPACITY];
+        starts = new int[INITIAL_CAPACITY];
+        lengths = new int[INITIAL_CAPACITY];
+        lines = new int[INITIAL_CAPACITY];
+    }
+
+    /** Makes room for at least this many tokens before the arrays grow. */
+    void reserve(int capacity) {
+        if (capacity > types.length) resize(capacity);
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) resize(count * 2);
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Drops the tokens numbered below index. Arrays that grew for a long
+     * declaration are shrunk again, so memory follows the declaration being
+     * parsed rather than the longest one so far.
+     */
+    void discardBefore(int index) {
+        int dropped = Math.min(index - first, count);
+        if (dropped <= 0) return;
+        count -= dropped;
+        first += dropped;
+        System.arraycopy(types, dropped, types, 0, count);
+        System.arraycopy(starts, dropped, starts, 0, count);
+        System.arraycopy(lengths, dropped, lengths, 0, count);
+        System.arraycopy(lines, dropped, lines, 0, count);
+        if (types.length > 4 * Math.max(count, INITIAL_CAPACITY)) {
+            resize(Math.max(count * 2, INITIAL_CAPACITY));
+        }
+    }
+
+    private void resize(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+    }
+
+    /** The number one past the last token scanned. */
+    int size() {
+        return first + count;
+    }
+
+    /** How many tokens the arrays have room for. */
+    int capacity() {
+        return types.length;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index - first]];
+    }
+
+    int line(int index) {
+        return lines[index - first];
+    }
+
+    String lexeme(int index) {
+        int slot = index - first;
+        return source.subSequence(starts[slot], starts[slot] + lengths[slot]).toString();
+    }
+
+    /** The value of a number or string token, or null for any other. */
+    Object literal(int index) {
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme(index));
+            case STRING:
+                int slot = index - first;
+                return source.subSequence(starts[slot] + 1, starts[slot] + lengths[slot] - 1).toString();
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = first; i < size(); i++) {
+            if (i > first) text.append(", ");
+            text.append(token(i));
+        }
+        return text.append("]").toString();
+    }
+}
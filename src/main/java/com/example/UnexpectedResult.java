@@ -0,0 +1,19 @@
+package com.example;
+
+/**
+ * Thrown by Interpreter.evaluateDouble when an expression turns out not to
+ * produce a number. Carries the value so the caller can carry on with it.
+ */
+class UnexpectedResult extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    // Only ever caught on the thread that threw it, never serialized.
+    final transient Object value;
+
+    UnexpectedResult(Object value) {
+        // No message, cause or stack trace: this is control flow on the
+        // numeric fast path and has to be cheap to throw.
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,611 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.Token.TokenType;
+
+/**
+ * A stack-based virtual machine for chunks produced by BytecodeCompiler. It is
+ * a second execution engine next to the Interpreter: locals live in an operand
+ * stack, calls push frames instead of recursing in Java, and variables that
+ * closures capture are moved into upvalues when their scope ends.
+ *
+ * The frames and the value stack are heap arrays that grow as calls nest, so
+ * the depth of Lox recursion does not depend on the size of the Java thread's
+ * stack, and a Vm runs just as well on a small virtual thread. The depth is
+ * capped by the {@code lox.maxFrames} system property. A Vm keeps all of its
+ * state in the instance; concurrent evaluations each use their own.
+ */
+class Vm {
+    static final int FRAMES_MAX = Integer.getInteger("lox.maxFrames", 1 << 20);
+
+    static class ObjFunction {
+        final String name;
+        final int arity;
+        final Chunk chunk = new Chunk();
+        int upvalueCount = 0;
+
+        ObjFunction(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        @Override
+        public String toString() {
+            return name == null ? "<script>" : "<fn " + name + ">";
+        }
+    }
+
+    static class ObjUpvalue {
+        // Index of the captured variable in the stack while it is open, or
+        // -1 once it has been closed over.
+        int slot;
+        Object closed;
+        ObjUpvalue next;
+
+        ObjUpvalue(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    static class ObjClosure {
+        final ObjFunction function;
+        final ObjUpvalue[] upvalues;
+
+        ObjClosure(ObjFunction function) {
+            this.function = function;
+            this.upvalues = new ObjUpvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    static class ObjClass {
+        final String name;
+        final Map<String, ObjClosure> methods = new HashMap<>();
+        ObjClosure initializer;
+
+        ObjClass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<class " + name + ">";
+        }
+    }
+
+    static class ObjInstance {
+        final ObjClass klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        ObjInstance(ObjClass klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static class ObjBoundMethod {
+        final Object receiver;
+        final ObjClosure method;
+
+        ObjBoundMethod(Object receiver, ObjClosure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    interface NativeFn {
+        Object call(Object[] arguments);
+    }
+
+    static class ObjNative {
+        final int arity;
+        final NativeFn function;
+
+        ObjNative(int arity, NativeFn function) {
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        int base;
+    }
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private final Map<String, Object> globals = new HashMap<>();
+    private ObjUpvalue openUpvalues = null;
+
+    Vm() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+        globals.put("clock", new ObjNative(0, arguments -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    void interpret(ObjFunction script) {
+        try {
+            ObjClosure closure = new ObjClosure(script);
+            push(closure);
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int base = frame.base;
+        int ip = frame.ip;
+
+        for (;;) {
+            // Kept at the start of the current instruction so errors can find
+            // its line. Calls overwrite it with the return address.
+            frame.ip = ip;
+            switch (code[ip++]) {
+                case Chunk.OP_CONSTANT:
+                    push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                    break;
+                case Chunk.OP_NIL: push(null); break;
+                case Chunk.OP_TRUE: push(true); break;
+                case Chunk.OP_FALSE: push(false); break;
+                case Chunk.OP_POP: sp--; break;
+                case Chunk.OP_GET_LOCAL:
+                    push(stack[base + (code[ip++] & 0xff)]);
+                    break;
+                case Chunk.OP_SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = peek(0);
+                    break;
+                case Chunk.OP_GET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = globals.getOrDefault(name, Environment.UNDEFINED);
+                    if (value == Environment.UNDEFINED) {
+                        throw error("Undefined variable: '" + name + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+                case Chunk.OP_DEFINE_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.put(name, pop());
+                    break;
+                }
+                case Chunk.OP_SET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        throw error("Undefined variable: '" + name + "'.");
+                    }
+                    globals.put(name, peek(0));
+                    break;
+                }
+                case Chunk.OP_GET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    push(upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed);
+                    break;
+                }
+                case Chunk.OP_SET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+                case Chunk.OP_GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(peek(0) instanceof ObjInstance)) {
+                        throw error("Only instances have properties");
+                    }
+                    ObjInstance instance = (ObjInstance) peek(0);
+                    Object value = instance.fields.getOrDefault(name, Environment.UNDEFINED);
+                    if (value != Environment.UNDEFINED) {
+                        stack[sp - 1] = value;
+                    } else {
+                        stack[sp - 1] = bindMethod(instance, instance.klass, name);
+                    }
+                    break;
+                }
+                case Chunk.OP_SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(peek(1) instanceof ObjInstance)) {
+                        throw error("Only instances have fields.");
+                    }
+                    Object value = pop();
+                    ((ObjInstance) pop()).fields.put(name, value);
+                    push(value);
+                    break;
+                }
+                case Chunk.OP_GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClass superclass = (ObjClass) pop();
+                    stack[sp - 1] = bindMethod(peek(0), superclass, name);
+                    break;
+                }
+                case Chunk.OP_EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case Chunk.OP_NOT_EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case Chunk.OP_GREATER:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] > (double) stack[sp];
+                    break;
+                case Chunk.OP_GREATER_EQUAL:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] >= (double) stack[sp];
+                    break;
+                case Chunk.OP_LESS:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] < (double) stack[sp];
+                    break;
+                case Chunk.OP_LESS_EQUAL:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] <= (double) stack[sp];
+                    break;
+                case Chunk.OP_ADD: {
+                    Object b = peek(0);
+                    Object a = peek(1);
+                    if (a instanceof Double && b instanceof Double) {
+                        sp--;
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        sp--;
+                        stack[sp - 1] = (String) a + (String) b;
+                    } else {
+                        throw error("Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case Chunk.OP_SUBTRACT:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] - (double) stack[sp];
+                    break;
+                case Chunk.OP_MULTIPLY:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] * (double) stack[sp];
+                    break;
+                case Chunk.OP_DIVIDE:
+                    checkNumberOperands();
+                    sp--;
+                    stack[sp - 1] = (double) stack[sp - 1] / (double) stack[sp];
+                    break;
+                case Chunk.OP_NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case Chunk.OP_NEGATE:
+                    if (!(peek(0) instanceof Double)) {
+                        throw error("Operand must be a number");
+                    }
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                case Chunk.OP_PRINT:
+                    System.out.println(Interpreter.stringify(pop()));
+                    break;
+                case Chunk.OP_JUMP:
+                    ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    break;
+                case Chunk.OP_JUMP_IF_FALSE:
+                    if (!Interpreter.isTruthy(peek(0))) {
+                        ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    } else {
+                        ip += 2;
+                    }
+                    break;
+                case Chunk.OP_LOOP:
+                    ip += 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    break;
+                case Chunk.OP_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    int callerFrames = frameCount;
+                    callValue(peek(argCount), argCount);
+                    frame.ip = ip;
+                    if (code[ip] == Chunk.OP_RETURN) tailCall(callerFrames);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                case Chunk.OP_INVOKE: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    int callerFrames = frameCount;
+                    invoke(name, argCount);
+                    frame.ip = ip;
+                    if (code[ip] == Chunk.OP_RETURN) tailCall(callerFrames);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                case Chunk.OP_SUPER_INVOKE: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    ObjClass superclass = (ObjClass) pop();
+                    int callerFrames = frameCount;
+                    invokeFromClass(superclass, name, argCount);
+                    frame.ip = ip;
+                    if (code[ip] == Chunk.OP_RETURN) tailCall(callerFrames);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                case Chunk.OP_CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                            ? captureUpvalue(base + index)
+                            : frame.closure.upvalues[index];
+                    }
+                    push(closure);
+                    break;
+                }
+                case Chunk.OP_CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case Chunk.OP_RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (frameCount == 0) {
+                        sp = 0;
+                        return;
+                    }
+                    sp = base;
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                case Chunk.OP_CLASS:
+                    push(new ObjClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+                    ip += 2;
+                    break;
+                case Chunk.OP_INHERIT: {
+                    if (!(peek(1) instanceof ObjClass)) {
+                        throw error("Superclass must be a class.");
+                    }
+                    ObjClass superclass = (ObjClass) peek(1);
+                    ObjClass subclass = (ObjClass) peek(0);
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                    sp--;
+                    break;
+                }
+                case Chunk.OP_METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure) peek(0);
+                    ObjClass klass = (ObjClass) peek(1);
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) klass.initializer = method;
+                    sp--;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure) {
+            call((ObjClosure) callee, argCount);
+        } else if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            stack[sp - argCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount);
+            }
+        } else if (callee instanceof ObjNative) {
+            ObjNative function = (ObjNative) callee;
+            if (argCount != function.arity) {
+                throw error("Expected " + function.arity + " arguments but got " + argCount);
+            }
+            Object[] arguments = new Object[argCount];
+            System.arraycopy(stack, sp - argCount, arguments, 0, argCount);
+            Object result = function.function.call(arguments);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw error("Can only call functions and classes");
+        }
+    }
+
+    /**
+     * Called after a call whose result the caller returns straight away. If
+     * the call pushed a frame, that frame takes the caller's place, so tail
+     * recursion does not use up frames. The script's own frame is kept.
+     */
+    private void tailCall(int callerFrames) {
+        if (frameCount == callerFrames || callerFrames < 2) return;
+
+        CallFrame caller = frames[callerFrames - 1];
+        CallFrame callee = frames[frameCount - 1];
+        closeUpvalues(caller.base);
+        int size = sp - callee.base;
+        System.arraycopy(stack, callee.base, stack, caller.base, size);
+        sp = caller.base + size;
+        caller.closure = callee.closure;
+        caller.ip = callee.ip;
+        frameCount--;
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity + " arguments but got " + argCount);
+        }
+        if (frameCount == frames.length) {
+            if (frameCount == FRAMES_MAX) {
+                throw error("Stack overflow.");
+            }
+            int capacity = (int) Math.min((long) frameCount * 2, FRAMES_MAX);
+            frames = Arrays.copyOf(frames, capacity);
+            for (int i = frameCount; i < capacity; i++) {
+                frames[i] = new CallFrame();
+            }
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private void invoke(String name, int argCount) {
+        Object receiver = peek(argCount);
+        if (!(receiver instanceof ObjInstance)) {
+            throw error("Only instances have properties");
+        }
+        ObjInstance instance = (ObjInstance) receiver;
+        Object field = instance.fields.getOrDefault(name, Environment.UNDEFINED);
+        if (field != Environment.UNDEFINED) {
+            stack[sp - argCount - 1] = field;
+            callValue(field, argCount);
+            return;
+        }
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(ObjClass klass, String name, int argCount) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private ObjBoundMethod bindMethod(Object receiver, ObjClass klass, String name) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        return new ObjBoundMethod(receiver, method);
+    }
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void checkNumberOperands() {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) return;
+        throw error("Operand must be a number");
+    }
+
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        int line = frame.closure.function.chunk.lines[frame.ip];
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, line), message);
+    }
+}
@@ -14,28 +14,31 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Binary : Expr left, Token operator, Expr right",
+            "Binary : Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
             "Call: Expr callee, Token paren, List<Expr> arguments",
-            "Get: Expr object, Token name",
-            "Set: Expr object, Token name, Expr value",
+            "Get: Expr object, Token name | PropertyCache cache = new PropertyCache()",
+            "Inline : Expr.Call call | Stmt.Function function, boolean deoptimized",
+            "Invoke : Expr object, Token name, Token paren, List<Expr> arguments | PropertyCache cache = new PropertyCache()",
+            "Set: Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
             "Grouping : Expr expression",
             "Literal : Object value",
             "Logical : Expr left, Token operator, Expr right",
             "Unary : Token operator, Expr right",
-            "This: Token keyword",
-            "Super: Token keyword, Token method",
-            "Variable : Token name",
-            "Assign : Token name, Expr value"
+            "This: Token keyword | int depth = -1, int slot, int upvalue = -1",
+            "Super: Token keyword, Token method | int depth = -1, int upvalue = -1, int receiver = -1, LoxClass superclass, LoxFunction target",
+            "Variable : Token name | int depth = -1, int slot, int upvalue = -1, boolean cell",
+            "Assign : Token name, Expr value | int depth = -1, int slot, int upvalue = -1, boolean cell"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block : List<Stmt> statements",
+            "Block : List<Stmt> statements | boolean scoped = true",
             "Expression : Expr expression",
-            "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods",
-            "Function : Token name, List<Token> params, List<Stmt> body",
+            "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods | boolean cell",
+            "Function : Token name, List<Token> params, List<Stmt> body | int hotness, CompiledCode compiled, int frameSize, boolean cell, Capture[] captures = Capture.NONE, int[] capturedParams",
             "Print : Expr expression",
-            "Return : Token keyword, Expr value",
-            "Var : Token name, Expr initializer",
+            "Return : Token keyword, Expr value | boolean tailCall",
+            "Var : Token name, Expr initializer | boolean cell",
             "While : Expr condition, Stmt body",
+            "For : Stmt initializer, Expr condition, Expr increment, Stmt body | boolean scoped = true, boolean counted",
             "If : Expr condition, Stmt thenBranch, Stmt elseBranch"
         ));
     }
@@ -54,8 +57,9 @@ public class GenerateAst {
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseClass, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String resolved = fields.length > 1 ? fields[1].trim() : null;
+            defineType(writer, baseClass, className, fields[0].trim(), resolved);
         }
         writer.println();
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
@@ -74,7 +78,12 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseClass, String className, String fieldList) {
+    /**
+     * Fields after a '|' in a type description are not constructor arguments;
+     * they are left mutable for later passes such as the Resolver to fill in.
+     */
+    private static void defineType(PrintWriter writer, String baseClass, String className, String fieldList,
+            String resolvedList) {
         writer.println();
         writer.println("    static class " + className + " extends " + baseClass + " {");
 
@@ -99,6 +108,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("        final " + field + ";");
         }
+        if (resolvedList != null) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
         writer.println("    }");
     } 
 }
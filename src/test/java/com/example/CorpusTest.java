@@ -0,0 +1,105 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Runs every script under {@code corpus/} on the tree-walking interpreter,
+ * the bytecode VM, streamed on the interpreter, and compiled ahead of time
+ * to a JVM class.
+ *
+ * Scripts state what they should do in comments: {@code // expect: output}
+ * for each printed line, and {@code // expect runtime error: message} on the
+ * line that should fail.
+ */
+public class CorpusTest
+    extends TestCase
+{
+    private static final Pattern EXPECT = Pattern.compile("// expect: (.*)$");
+    private static final Pattern EXPECT_ERROR = Pattern.compile("// expect runtime error: (.*)$");
+
+    private enum Mode
+    {
+        INTERPRETER, VM, STREAM, AOT
+    }
+
+    private final Path script;
+    private final Mode mode;
+
+    public CorpusTest( Path script, Mode mode )
+    {
+        super( script.getFileName() + " [" + mode.name().toLowerCase() + "]" );
+        this.script = script;
+        this.mode = mode;
+    }
+
+    public static Test suite() throws Exception
+    {
+        TestSuite suite = new TestSuite( "corpus" );
+        Path corpus = Path.of( CorpusTest.class.getResource( "/corpus" ).toURI() );
+        try ( Stream<Path> scripts = Files.list( corpus ) ) {
+            scripts.filter( path -> path.toString().endsWith( ".lox" ) ).sorted().forEach( path -> {
+                for ( Mode mode : Mode.values() ) {
+                    suite.addTest( new CorpusTest( path, mode ) );
+                }
+            } );
+        }
+        return suite;
+    }
+
+    @Override
+    protected void runTest() throws IOException
+    {
+        String source = Files.readString( script );
+        List<String> expectedOutput = new ArrayList<>();
+        String expectedError = null;
+
+        String[] lines = source.split( "\n" );
+        for ( int i = 0; i < lines.length; i++ ) {
+            Matcher output = EXPECT.matcher( lines[i] );
+            if ( output.find() ) {
+                expectedOutput.add( output.group( 1 ) );
+            }
+            Matcher error = EXPECT_ERROR.matcher( lines[i] );
+            if ( error.find() ) {
+                expectedError = error.group( 1 ) + "\n[line " + ( i + 1 ) + "]";
+            }
+        }
+
+        int[] status = new int[1];
+        LoxTestSupport.Output output = LoxTestSupport.capture( () -> status[0] = run( source ) );
+        String stdout = output.out;
+        String stderr = output.err;
+        assertEquals( String.join( "\n", expectedOutput ), stdout.strip() );
+        if ( expectedError == null ) {
+            assertEquals( stderr, 0, status[0] );
+        } else {
+            assertEquals( 70, status[0] );
+            assertEquals( expectedError, stderr.strip() );
+        }
+    }
+
+    private int run( String source )
+    {
+        switch ( mode ) {
+            case VM:
+                return Lox.runScript( source, true, false );
+            case STREAM:
+                return Lox.runScript( source, false, true );
+            case AOT:
+                return Lox.runCompiled( source );
+            default:
+                return Lox.runScript( source, false, false );
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the interpreter's fast paths against what the plain semantics would
+ * give: blocks run without a scope of their own, for loops counted in a
+ * double, and returns passed up as a Completion instead of thrown.
+ */
+public class InterpreterTest
+    extends TestCase
+{
+    private String stderr;
+    private int status;
+
+    private static List<Stmt> resolve( String source )
+    {
+        List<Stmt> statements = new Parser( new Scanner( source ).scanTokens() ).parse();
+        new Resolver().resolve( statements );
+        return statements;
+    }
+
+    /** Runs a script on the interpreter and returns what it printed. */
+    private String run( String source )
+    {
+        return run( source, false );
+    }
+
+    private String run( String source, boolean onVm )
+    {
+        LoxTestSupport.Output output = LoxTestSupport.capture( () -> status = Lox.runScript( source, onVm ) );
+        stderr = output.err.strip();
+        return output.out.strip().replace( "\n", " " );
+    }
+
+    public void testBlocksThatDeclareNothingShareTheEnclosingScope()
+    {
+        String source = "fun f() {\n"
+            + "  var a = 1;\n"
+            + "  { a = a + 1; { print a; } }\n"
+            + "  var b = 10;\n"
+            + "  { var a = 100; print a + b; }\n"
+            + "  print a + b;\n"
+            + "}\n"
+            + "f();\n";
+        Stmt.Function f = (Stmt.Function) resolve( source ).get( 0 );
+        assertFalse( ( (Stmt.Block) f.body.get( 1 ) ).scoped );
+        assertTrue( ( (Stmt.Block) f.body.get( 3 ) ).scoped );
+        assertEquals( "2 110 12", run( source ) );
+    }
+
+    public void testCountsLoopsInADouble()
+    {
+        String source = "var sum = 0;\n"
+            + "for (var i = 10; i > 0; i = i - 2.5) sum = sum + i;\n"
+            + "print sum;\n";
+        assertTrue( ( (Stmt.For) resolve( source ).get( 1 ) ).counted );
+        assertEquals( "25", run( source ) );
+    }
+
+    public void testCountsOnFromAValueTheBodyAssigns()
+    {
+        String source = "for (var i = 0; i < 10; i = i + 1) {\n"
+            + "  if (i == 2) i = 6;\n"
+            + "  print i;\n"
+            + "}\n";
+        assertTrue( ( (Stmt.For) resolve( source ).get( 0 ) ).counted );
+        assertEquals( "0 1 6 7 8 9", run( source ) );
+    }
+
+    public void testFinishesGenericallyWhenTheBodyStoresANonNumber()
+    {
+        String source = "for (var i = 0; i < 10; i = i + 1) {\n"
+            + "  print i;\n"
+            + "  if (i == 1) i = \"one\";\n"
+            + "}\n";
+        assertEquals( "0 1", run( source ) );
+        assertEquals( 70, status );
+        assertEquals( "Operands must be two numbers or two strings.\n[line 1]", stderr );
+    }
+
+    public void testLeavesCapturedCountersToTheGenericLoop()
+    {
+        String source = "var first;\n"
+            + "var last;\n"
+            + "for (var i = 0; i < 3; i = i + 1) {\n"
+            + "  fun get() { return i; }\n"
+            + "  if (first == nil) first = get;\n"
+            + "  last = get;\n"
+            + "}\n"
+            + "print first();\n"
+            + "print last();\n";
+        assertFalse( ( (Stmt.For) resolve( source ).get( 2 ) ).counted );
+        assertEquals( run( source, true ), run( source ) );
+        assertEquals( "3 3", run( source ) );
+    }
+
+    public void testReturnLeavesNestedBlocksAndLoops()
+    {
+        String source = "fun find(target) {\n"
+            + "  var tries = 0;\n"
+            + "  while (tries < 100) {\n"
+            + "    for (var i = 0; i < 10; i = i + 1) {\n"
+            + "      { tries = tries + 1; }\n"
+            + "      if (i == target) { { var found = i; return found * 100 + tries; } }\n"
+            + "    }\n"
+            + "    print \"unreachable\";\n"
+            + "  }\n"
+            + "  return -1;\n"
+            + "}\n"
+            + "print find(3);\n"
+            + "print find(0);\n";
+        assertEquals( "304 1", run( source ) );
+    }
+
+    public void testReturnLeavesGenericLoops()
+    {
+        String source = "fun first(s) {\n"
+            + "  for (var i = s; i != \"\"; i = \"\") {\n"
+            + "    var n = 0;\n"
+            + "    while (n < 5) { n = n + 1; if (n == 3) return i; }\n"
+            + "  }\n"
+            + "  return \"none\";\n"
+            + "}\n"
+            + "print first(\"x\");\n"
+            + "print first(\"\");\n";
+        assertFalse( ( (Stmt.For) ( (Stmt.Function) resolve( source ).get( 0 ) ).body.get( 0 ) ).counted );
+        assertEquals( "x none", run( source ) );
+    }
+
+    public void testReturnWithoutValueAndFallingOffTheEnd()
+    {
+        String source = "fun early(n) { while (n < 10) { if (n > 0) return; n = n + 1; } return n; }\n"
+            + "fun none() { for (var i = 0; i < 3; i = i + 1) {} }\n"
+            + "class Box {\n"
+            + "  init(v) { this.v = v; for (var i = 0; i < 5; i = i + 1) { if (i == 1) return; this.v = this.v + 1; } }\n"
+            + "}\n"
+            + "print early(0);\n"
+            + "print none();\n"
+            + "print Box(10).v;\n";
+        assertEquals( "nil nil 11", run( source ) );
+    }
+}
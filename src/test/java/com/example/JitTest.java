@@ -0,0 +1,71 @@
+package com.example;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that hot functions get compiled, and that compiled code prints what
+ * the interpreter does.
+ */
+public class JitTest
+    extends TestCase
+{
+    private static final String SOURCE = "fun sum(n) {\n"
+        + "  var total = 0;\n"
+        + "  for (var i = 0; i < n; i = i + 1) total = total + i;\n"
+        + "  return total;\n"
+        + "}\n"
+        + "class Counter {\n"
+        + "  init() { this.count = 0; }\n"
+        + "  add(n) { this.count = this.count + n; return this; }\n"
+        + "}\n"
+        + "var counter = Counter();\n"
+        + "for (var j = 0; j < 50; j = j + 1) {\n"
+        + "  print sum(j);\n"
+        + "  counter.add(j);\n"
+        + "}\n"
+        + "print counter.count;\n";
+
+    private int savedThreshold;
+
+    @Override
+    protected void setUp()
+    {
+        savedThreshold = Jit.threshold;
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Jit.threshold = savedThreshold;
+    }
+
+    public void testCompilesHotFunctions()
+    {
+        Jit.threshold = 0;
+        String interpreted = run( parse( SOURCE ) );
+
+        Jit.threshold = 10;
+        List<Stmt> statements = parse( SOURCE );
+        String compiled = run( statements );
+
+        assertEquals( interpreted, compiled );
+        Stmt.Function sum = (Stmt.Function) statements.get( 0 );
+        assertNotNull( sum.compiled );
+        Stmt.Function add = ( (Stmt.Class) statements.get( 1 ) ).methods.get( 1 );
+        assertNotNull( add.compiled );
+    }
+
+    private static List<Stmt> parse( String source )
+    {
+        List<Stmt> statements = new Parser( new Scanner( source ).scanTokens() ).parse();
+        new Resolver().resolve( statements );
+        return statements;
+    }
+
+    private static String run( List<Stmt> statements )
+    {
+        return LoxTestSupport.capture( () -> new Interpreter().interpret( statements ) ).out;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that instances keep their fields as the field array grows, on the
+ * cache misses and megamorphic sites that go through the shape lookup.
+ */
+public class LoxInstanceTest
+    extends TestCase
+{
+    private static LoxInstance instance( String className )
+    {
+        return new LoxInstance( new LoxClass( className, null, new HashMap<>() ) );
+    }
+
+    public void testAddsFieldsPastCapacityOnCacheMisses()
+    {
+        LoxInstance instance = instance( "Bag" );
+        for ( int i = 0; i < 20; i++ )
+        {
+            LoxRuntime.setProperty( instance, (double) i, new PropertyCache(), "f" + i, 1 );
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( (double) i, LoxRuntime.getProperty( instance, new PropertyCache(), "f" + i, 1 ) );
+        }
+    }
+
+    public void testAddsFieldsPastCapacityThroughMegamorphicSites()
+    {
+        PropertyCache[] sites = new PropertyCache[10];
+        for ( int i = 0; i < sites.length; i++ )
+        {
+            sites[i] = new PropertyCache();
+        }
+        // Instances of different classes have different shapes, so every
+        // site ends up past its last cache entry.
+        LoxInstance[] instances = new LoxInstance[6];
+        for ( int k = 0; k < instances.length; k++ )
+        {
+            instances[k] = instance( "C" + k );
+            for ( int i = 0; i < sites.length; i++ )
+            {
+                instances[k].set( "f" + i, k * 100.0 + i, sites[i] );
+            }
+        }
+        for ( int k = 0; k < instances.length; k++ )
+        {
+            for ( int i = 0; i < sites.length; i++ )
+            {
+                assertEquals( k * 100.0 + i, instances[k].get( "f" + i, 1, sites[i] ) );
+            }
+        }
+    }
+}
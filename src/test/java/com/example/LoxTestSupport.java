@@ -0,0 +1,49 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers shared by the tests that run scripts and check what they print.
+ */
+final class LoxTestSupport
+{
+    /** What an action wrote to standard output and standard error. */
+    static final class Output
+    {
+        final String out;
+        final String err;
+
+        Output( String out, String err )
+        {
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private LoxTestSupport()
+    {
+    }
+
+    /**
+     * Runs an action with System.out and System.err redirected, restoring
+     * both afterwards even if it throws, and returns what it wrote.
+     */
+    static Output capture( Runnable action )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        try {
+            System.setOut( new PrintStream( out, true, StandardCharsets.UTF_8 ) );
+            System.setErr( new PrintStream( err, true, StandardCharsets.UTF_8 ) );
+            action.run();
+        } finally {
+            System.setOut( originalOut );
+            System.setErr( originalErr );
+        }
+        return new Output( out.toString( StandardCharsets.UTF_8 ), err.toString( StandardCharsets.UTF_8 ) );
+    }
+}
@@ -0,0 +1,85 @@
+package com.example;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks what each optimizer pass rewrites. CorpusTest checks that optimized
+ * scripts still behave the same.
+ */
+public class OptimizerTest
+    extends TestCase
+{
+    private static List<Stmt> optimize( String source, EnumSet<Optimizer.Pass> passes )
+    {
+        List<Stmt> statements = new Parser( new Scanner( source ).scanTokens() ).parse();
+        new Resolver().resolve( statements );
+        return new Optimizer( passes ).optimize( statements );
+    }
+
+    private static Expr printed( Stmt stmt )
+    {
+        return ( (Stmt.Print) stmt ).expression;
+    }
+
+    public void testFoldsLiteralOperands()
+    {
+        List<Stmt> statements = optimize( "print 2 * 3 + 1 == 7 and !false;", EnumSet.of( Optimizer.Pass.FOLD ) );
+        Expr expression = printed( statements.get( 0 ) );
+        assertTrue( expression instanceof Expr.Literal );
+        assertEquals( Boolean.TRUE, ( (Expr.Literal) expression ).value );
+    }
+
+    public void testLeavesFailingOperationsAlone()
+    {
+        List<Stmt> statements = optimize( "print 1 + \"a\";", EnumSet.of( Optimizer.Pass.FOLD ) );
+        assertTrue( printed( statements.get( 0 ) ) instanceof Expr.Binary );
+    }
+
+    public void testPropagatesAndRemovesConstantLocals()
+    {
+        List<Stmt> statements = optimize( "{ var n = 4; print n * n; }", EnumSet.allOf( Optimizer.Pass.class ) );
+        Stmt.Block block = (Stmt.Block) statements.get( 0 );
+        assertEquals( 1, block.statements.size() );
+        assertFalse( block.scoped );
+        assertEquals( 16.0, ( (Expr.Literal) printed( block.statements.get( 0 ) ) ).value );
+    }
+
+    public void testKeepsReassignedLocals()
+    {
+        List<Stmt> statements = optimize( "{ var n = 4; n = n + 1; print n; }", EnumSet.allOf( Optimizer.Pass.class ) );
+        Stmt.Block block = (Stmt.Block) statements.get( 0 );
+        assertEquals( 3, block.statements.size() );
+        assertTrue( printed( block.statements.get( 2 ) ) instanceof Expr.Variable );
+    }
+
+    public void testRemovesDeadBranchesAndUnreachableCode()
+    {
+        List<Stmt> statements = optimize(
+            "fun f() { if (false) print 1; else print 2; return 3; print 4; }",
+            EnumSet.of( Optimizer.Pass.ELIMINATE ) );
+        Stmt.Function function = (Stmt.Function) statements.get( 0 );
+        assertEquals( 2, function.body.size() );
+        assertEquals( 2.0, ( (Expr.Literal) printed( function.body.get( 0 ) ) ).value );
+    }
+
+    public void testInlinesSmallTopLevelFunctions()
+    {
+        List<Stmt> statements = optimize(
+            "fun sq(x) { return x * x; } fun loop(x) { return loop(x); } print sq(3); print loop(1);",
+            EnumSet.of( Optimizer.Pass.INLINE ) );
+        Expr inlined = printed( statements.get( 2 ) );
+        assertTrue( inlined instanceof Expr.Inline );
+        assertSame( statements.get( 0 ), ( (Expr.Inline) inlined ).function );
+        assertTrue( printed( statements.get( 3 ) ) instanceof Expr.Call );
+    }
+
+    public void testDisabledPassesChangeNothing()
+    {
+        List<Stmt> statements = new Parser( new Scanner( "{ var n = 1 + 2; if (true) print n; }" ).scanTokens() ).parse();
+        new Resolver().resolve( statements );
+        assertSame( statements, new Optimizer( EnumSet.noneOf( Optimizer.Pass.class ) ).optimize( statements ) );
+    }
+}
@@ -0,0 +1,53 @@
+package com.example;
+
+import java.util.List;
+
+import com.example.Token.TokenType;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the shape the precedence table gives expressions, and how
+ * AstPrinter prints it.
+ */
+public class ParserTest
+    extends TestCase
+{
+    private static Expr parse( String expression )
+    {
+        List<Stmt> statements = new Parser( new Scanner( expression + ";" ).scanTokens() ).parse();
+        return ( (Stmt.Expression) statements.get( 0 ) ).expression;
+    }
+
+    public void testOperatorsBindByPrecedence()
+    {
+        Expr.Logical or = (Expr.Logical) parse( "a or b and c == -d + e * f.g()" );
+        assertEquals( TokenType.OR, or.operator.type );
+        Expr.Logical and = (Expr.Logical) or.right;
+        Expr.Binary equality = (Expr.Binary) and.right;
+        assertEquals( TokenType.EQUAL_EQUAL, equality.operator.type );
+        Expr.Binary sum = (Expr.Binary) equality.right;
+        assertTrue( sum.left instanceof Expr.Unary );
+        Expr.Binary product = (Expr.Binary) sum.right;
+        assertTrue( product.right instanceof Expr.Invoke );
+    }
+
+    public void testAssociativity()
+    {
+        Expr.Binary difference = (Expr.Binary) parse( "a - b - c" );
+        assertTrue( difference.left instanceof Expr.Binary );
+        assertTrue( difference.right instanceof Expr.Variable );
+
+        Expr.Assign assign = (Expr.Assign) parse( "a = b.c = d" );
+        assertEquals( "a", assign.name.lexeme );
+        assertTrue( assign.value instanceof Expr.Set );
+    }
+
+    public void testPrintsCallsAndProperties()
+    {
+        AstPrinter printer = new AstPrinter();
+        assertEquals( "(call (. a b) 1.0 (call f c))", printer.print( parse( "a.b(1, f(c))" ) ) );
+        assertEquals( "(call (. (call (. a b)) c))", printer.print( parse( "a.b().c()" ) ) );
+        assertEquals( "(= (. a b) (or x (. this y)))", printer.print( parse( "a.b = x or this.y" ) ) );
+    }
+}
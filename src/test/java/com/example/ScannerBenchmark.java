@@ -0,0 +1,66 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures how fast the Scanner gets through a large rule bundle. Not a
+ * test; run it after {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.example.ScannerBenchmark [script.lox]
+ * </pre>
+ *
+ * Without a script it scans a generated bundle of small rule functions.
+ */
+public class ScannerBenchmark
+{
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    public static void main( String[] args ) throws IOException
+    {
+        String source = args.length > 0 ? Files.readString( Path.of( args[0] ) ) : generate( 40000 );
+
+        int tokens = 0;
+        for ( int i = 0; i < WARMUP; i++ )
+        {
+            tokens = new Scanner( source ).scanTokens().size();
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for ( int i = 0; i < RUNS; i++ )
+        {
+            long start = System.nanoTime();
+            new Scanner( source ).scanTokens();
+            long elapsed = System.nanoTime() - start;
+            best = Math.min( best, elapsed );
+            total += elapsed;
+        }
+
+        double megabytes = source.length() / 1e6;
+        System.out.printf( "%.1f MB, %d tokens: best %.1f ms (%.0f MB/s), mean %.1f ms%n", megabytes, tokens,
+            best / 1e6, megabytes / ( best / 1e9 ), total / 1e6 / RUNS );
+    }
+
+    private static String generate( int rules )
+    {
+        StringBuilder source = new StringBuilder();
+        for ( int i = 0; i < rules; i++ )
+        {
+            source.append( "// Rule " ).append( i ).append( '\n' )
+                .append( "fun rule" ).append( i ).append( "(person, order) {\n" )
+                .append( "  if (person.age >= " ).append( i % 90 ).append( " and order.total < " )
+                .append( i ).append( ".5) {\n" )
+                .append( "    return \"band " ).append( i % 7 ).append( "\";\n" )
+                .append( "  }\n" )
+                .append( "  var score = (order.items + person.visits) * " ).append( i % 13 ).append( " - 1;\n" )
+                .append( "  while (score > 100) score = score / 2;\n" )
+                .append( "  return score == nil or !false;\n" )
+                .append( "}\n" );
+        }
+        return source.toString();
+    }
+}
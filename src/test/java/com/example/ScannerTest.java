@@ -0,0 +1,83 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.example.Token.TokenType;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the scanner's keyword table and operator tables against
+ * identifiers that only look like keywords.
+ */
+public class ScannerTest
+    extends TestCase
+{
+    private static TokenBuffer scan( String source )
+    {
+        return new Scanner( source ).scanTokens();
+    }
+
+    public void testRecognizesEveryKeyword()
+    {
+        String[] keywords = { "and", "class", "else", "false", "for", "fun", "if", "nil", "or", "print",
+            "return", "super", "this", "true", "var", "while" };
+        for ( String keyword : keywords )
+        {
+            TokenBuffer tokens = scan( keyword );
+            assertEquals( keyword, TokenType.valueOf( keyword.toUpperCase() ), tokens.type( 0 ) );
+        }
+    }
+
+    public void testKeywordLookalikesAreIdentifiers()
+    {
+        TokenBuffer tokens = scan( "an ands classy fo fortune iff nill o orr this_ True _var whilst x" );
+        for ( int i = 0; i < tokens.size() - 1; i++ )
+        {
+            assertEquals( tokens.lexeme( i ), TokenType.IDENTIFIER, tokens.type( i ) );
+        }
+        assertEquals( 14, tokens.size() - 1 );
+    }
+
+    public void testOperatorsNumbersAndStrings()
+    {
+        TokenBuffer tokens = scan( "a<=b != !c == d // comment\n\"two\nlines\" 1.5 >" );
+        TokenType[] expected = { TokenType.IDENTIFIER, TokenType.LESS_EQUAL, TokenType.IDENTIFIER,
+            TokenType.BANG_EQUAL, TokenType.BANG, TokenType.IDENTIFIER, TokenType.EQUAL_EQUAL,
+            TokenType.IDENTIFIER, TokenType.STRING, TokenType.NUMBER, TokenType.GREATER, TokenType.EOF };
+        assertEquals( expected.length, tokens.size() );
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( expected[i], tokens.type( i ) );
+        }
+        assertEquals( "two\nlines", tokens.literal( 8 ) );
+        assertEquals( 1.5, tokens.literal( 9 ) );
+        assertEquals( 3, tokens.line( 10 ) );
+    }
+
+    public void testMappedSourceDecodesUtf8()
+        throws Exception
+    {
+        Path script = Files.createTempFile( "scanner", ".lox" );
+        try
+        {
+            // Lox identifiers are ASCII, so only the comment and the string
+            // hold other characters.
+            Files.writeString( script, "// ünïcode\nvar cafe = \"naïve ✓\";", StandardCharsets.UTF_8 );
+            MappedSource source = MappedSource.map( script );
+            TokenBuffer[] tokens = new TokenBuffer[1];
+            LoxTestSupport.Output output = LoxTestSupport.capture( () -> tokens[0] = new Scanner( source ).scanTokens() );
+            assertEquals( "", output.err );
+            assertEquals( TokenType.VAR, tokens[0].type( 0 ) );
+            assertEquals( "cafe", tokens[0].lexeme( 1 ) );
+            assertEquals( "naïve ✓", tokens[0].literal( 3 ) );
+            assertEquals( 2, tokens[0].line( 3 ) );
+        }
+        finally
+        {
+            Files.delete( script );
+        }
+    }
+}
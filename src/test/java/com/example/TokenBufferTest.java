@@ -0,0 +1,92 @@
+package com.example;
+
+import com.example.Token.TokenType;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the token arrays keep every token as they grow, and that a
+ * streaming Parser keeps them small.
+ */
+public class TokenBufferTest
+    extends TestCase
+{
+    public void testGrowsPastInitialCapacity()
+    {
+        String source = "a b c";
+        TokenBuffer tokens = new TokenBuffer( source );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            tokens.add( TokenType.IDENTIFIER, ( i % 3 ) * 2, 1, i + 1 );
+        }
+        assertEquals( 1000, tokens.size() );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( TokenType.IDENTIFIER, tokens.type( i ) );
+            assertEquals( String.valueOf( "abc".charAt( i % 3 ) ), tokens.lexeme( i ) );
+            assertEquals( i + 1, tokens.line( i ) );
+        }
+    }
+
+    public void testScannerKeepsLexemesAndLinesAcrossGrowth()
+    {
+        // Three tokens in about eight characters is denser than the
+        // buffer's first guess, so it has to grow several times.
+        StringBuilder source = new StringBuilder();
+        int lines = 2000;
+        for ( int i = 0; i < lines; i++ )
+        {
+            source.append( "(v" ).append( i ).append( ")\n" );
+        }
+        TokenBuffer tokens = new Scanner( source ).scanTokens();
+        assertEquals( 3 * lines + 1, tokens.size() );
+        for ( int i = 0; i < lines; i++ )
+        {
+            assertEquals( TokenType.LEFT_PAREN, tokens.type( 3 * i ) );
+            assertEquals( "v" + i, tokens.lexeme( 3 * i + 1 ) );
+            assertEquals( i + 1, tokens.line( 3 * i + 1 ) );
+            assertEquals( TokenType.RIGHT_PAREN, tokens.type( 3 * i + 2 ) );
+        }
+        assertEquals( TokenType.EOF, tokens.type( 3 * lines ) );
+    }
+
+    public void testStreamingKeepsTheBufferBounded()
+    {
+        StringBuilder source = new StringBuilder();
+        int declarations = 20000;
+        for ( int i = 0; i < declarations; i++ )
+        {
+            if ( i == declarations / 2 )
+            {
+                // One long declaration, which the buffer has to grow for.
+                source.append( "fun long() {\n" );
+                for ( int j = 0; j < 5000; j++ )
+                {
+                    source.append( "  x = x + " ).append( j ).append( ";\n" );
+                }
+                source.append( "}\n" );
+            }
+            source.append( "var v" ).append( i ).append( " = v" ).append( i - 1 ).append( " + 1;\n" );
+        }
+
+        Scanner scanner = new Scanner( source );
+        Parser parser = new Parser( scanner );
+        int parsed = 0;
+        Stmt.Var last = null;
+        while ( parser.hasNext() )
+        {
+            Stmt declaration = parser.next();
+            parsed++;
+            if ( declaration instanceof Stmt.Var )
+            {
+                last = (Stmt.Var) declaration;
+                // Short declarations need only a few slots, including the
+                // ones after the long function.
+                assertTrue( scanner.tokens().capacity() <= 1024 );
+            }
+        }
+        assertEquals( declarations + 1, parsed );
+        assertEquals( "v" + ( declarations - 1 ), last.name.lexeme );
+        assertEquals( declarations + 5000 + 2, last.name.line );
+    }
+}
@@ -0,0 +1,29 @@
+package com.example;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the VM keeps Lox calls off the Java stack.
+ */
+public class VmTest
+    extends TestCase
+{
+    public void testDeepRecursionOnVirtualThread() throws Exception
+    {
+        String source = "fun depth(n) { if (n == 0) return 0; return 1 + depth(n - 1); }\n"
+            + "print depth(100000);\n";
+
+        int[] status = new int[1];
+        LoxTestSupport.Output output = LoxTestSupport.capture( () -> {
+            Thread thread = Thread.ofVirtual().start( () -> status[0] = Lox.runScript( source, true ) );
+            try {
+                thread.join();
+            } catch ( InterruptedException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+
+        assertEquals( output.err, 0, status[0] );
+        assertEquals( "100000", output.out.strip() );
+    }
+}